@@ -0,0 +1,69 @@
+package lsi.noc.assessment22;
+
+import ptolemy.actor.Actor;
+import ptolemy.actor.Director;
+import ptolemy.actor.util.Time;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * BenchDirector is a minimal stand-in for the DE director, which lets
+ * benchmarks drive actors directly. It keeps the model time, which is set
+ * by the benchmark, and a calendar of the firings requested by actors.
+*/
+
+@SuppressWarnings("serial")
+public class BenchDirector extends Director {
+
+	protected Time time;
+	// Requested firing times
+	protected EventHeap<Actor> firings;
+	protected long requests;
+
+	public BenchDirector(CompositeEntity container, String name)
+	throws IllegalActionException, NameDuplicationException {
+		super(container, name);
+		time = new Time(this, 0.0);
+		firings = new EventHeap<Actor>();
+		requests = 0;
+	}
+
+	public Time getModelTime() {
+		return time;
+	}
+
+	public void setModelTime(Time newTime) throws IllegalActionException {
+		time = newTime;
+	}
+
+	public Time fireAt(Actor actor, Time newTime) throws IllegalActionException {
+		firings.push(newTime.getDoubleValue(), actor);
+		requests++;
+		return newTime;
+	}
+
+	/**
+	 * nextFiring() returns the earliest requested firing time.
+	 * @return time or positive infinity if nothing has been requested
+	 */
+	public double nextFiring() {
+		return firings.peekKey();
+	}
+
+	/**
+	 * advance() sets the model time and drops the firings requested up to it,
+	 * as the DE director fires an actor once for all its events at the same time.
+	 * @param newTime
+	 * @throws IllegalActionException
+	 */
+	public void advance(double newTime) throws IllegalActionException {
+		while (firings.peekKey() <= newTime)
+			firings.pop();
+		setModelTime(new Time(this, newTime));
+	}
+
+	public long requests() {
+		return requests;
+	}
+}
@@ -0,0 +1,81 @@
+package lsi.noc.assessment22;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * BenchHarness measures the throughput and the allocation rate of an operation.
+ * The operation is first run for a warm-up period, so that it gets compiled,
+ * and then for the measurement period. Bytes allocated per operation are read
+ * from the allocation counter of the benchmark thread, which is provided by
+ * HotSpot-based JVMs; on other JVMs they are reported as NaN.
+*/
+
+public class BenchHarness {
+
+	public interface Operation {
+		/**
+		 * run() performs a single operation.
+		 * @param iteration number of the operation
+		 * @throws Exception
+		 */
+		void run(long iteration) throws Exception;
+	}
+
+	public static class Result {
+		public double opsPerSecond;
+		public double bytesPerOp;
+	}
+
+	// Results of operations are added here, so that they cannot be optimised away
+	public static volatile long sink;
+
+	/**
+	 * measure() runs the operation for the given warm-up and measurement periods.
+	 * @param operation
+	 * @param warmup warm-up period in seconds
+	 * @param seconds measurement period in seconds
+	 * @return throughput and allocation rate in the measurement period
+	 * @throws Exception
+	 */
+	public static Result measure(Operation operation, double warmup, double seconds) throws Exception {
+		long iteration = run(operation, 0, warmup);
+
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long operations = run(operation, iteration, seconds) - iteration;
+		long elapsed = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes;
+
+		Result result = new Result();
+		result.opsPerSecond = operations / (elapsed / 1e9);
+		result.bytesPerOp = bytes < 0 ? Double.NaN : (double)bytes / operations;
+		return result;
+	}
+
+	/**
+	 * run() runs the operation in batches until the period is over.
+	 * @return number of the next operation
+	 */
+	protected static long run(Operation operation, long iteration, double seconds) throws Exception {
+		long end = System.nanoTime() + (long)(seconds * 1e9);
+		do {
+			for (int i = 0; i < 64; i++)
+				operation.run(iteration++);
+		} while (System.nanoTime() < end);
+		return iteration;
+	}
+
+	/**
+	 * allocatedBytes() returns the number of bytes allocated by the current thread.
+	 * @return number of bytes or -1 if the JVM does not count them
+	 */
+	protected static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled())
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
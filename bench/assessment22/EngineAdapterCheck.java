@@ -0,0 +1,126 @@
+package lsi.noc.assessment22;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.expr.Parameter;
+import lsi.noc.application.PacketToken;
+
+/**
+ * EngineAdapterCheck compares interConnect with NocEngine driven by HeadlessSimulation.
+ * A task table is simulated by HeadlessSimulation, which records every packet admitted
+ * to its engine. The same packets are then sent through interConnect at the times they
+ * were admitted, and each of them must be delivered at the same clock cycle and in the
+ * same order by both. The first difference is printed and the program exits with status 1.
+ *
+ * Usage: java lsi.noc.assessment22.EngineAdapterCheck [task table] [stop time]
+*/
+
+public class EngineAdapterCheck {
+
+	protected static final double PERIOD = 1e-8;
+	protected static final int WIDTH = 4, HEIGHT = 4;
+
+	public static void main(String[] args) throws Exception {
+		String table = args.length > 0 ? args[0] : "model/EMBS_OA2_2015_3.tasks";
+		double stopTime = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+
+		// Packets admitted to the engine, numbered in the order of admission
+		final ArrayList<PListElement> admitted = new ArrayList<PListElement>();
+		final IdentityHashMap<PListElement, Integer> numbers = new IdentityHashMap<PListElement, Integer>();
+		final ArrayList<String> expected = new ArrayList<String>();
+
+		// Arbitration takes 3 cycles per router, as in interConnect
+		NocEngine engine = new NocEngine(WIDTH, HEIGHT, PERIOD * 3, true, false) {
+			public PListElement admit(int srcX, int srcY, int dstX, int dstY, int priority, int size,
+									  double time, Object packet) {
+				PListElement plistElement = super.admit(srcX, srcY, dstX, dstY, priority, size, time, packet);
+				numbers.put(plistElement, admitted.size());
+				admitted.add(plistElement);
+				return plistElement;
+			}
+		};
+		HeadlessSimulation simulation = new HeadlessSimulation(TaskSet.load(table), engine, PERIOD) {
+			protected void receive(PListElement plistElement) {
+				super.receive(plistElement);
+				expected.add(cycle(time) + " " + (plistElement.dstX * HEIGHT + plistElement.dstY) + " " +
+							 numbers.get(plistElement));
+			}
+		};
+		simulation.setTimeResolution(PERIOD);
+		simulation.run(stopTime);
+
+		ArrayList<String> actual = send(admitted, stopTime);
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+			String first = i < expected.size() ? expected.get(i) : "none";
+			String second = i < actual.size() ? actual.get(i) : "none";
+			if (!first.equals(second)) {
+				System.out.println(table + ": delivery " + i + " is " + second + " in interConnect and " +
+								   first + " in HeadlessSimulation (cycle port packet)");
+				System.exit(1);
+			}
+		}
+		System.out.println(table + ": " + admitted.size() + " packets sent, " + actual.size() +
+						   " delivered up to " + stopTime + " s, all equal");
+	}
+
+	/**
+	 * send() sends the packets through interConnect at the times of their admission.
+	 * @return delivered packets as "cycle port packet" lines, in the order they were delivered
+	 */
+	protected static ArrayList<String> send(ArrayList<PListElement> packets, double stopTime) throws Exception {
+		TypedCompositeActor top = new TypedCompositeActor();
+		BenchDirector director = new BenchDirector(top, "director");
+		new Parameter(top, "period").setToken(new DoubleToken(PERIOD));
+		recordingInterConnect noc = new recordingInterConnect(top, "noc");
+		noc.initialize();
+
+		double resolution = director.getTimeResolution();
+		int sent = 0;
+		while (true) {
+			double arrival = sent < packets.size() ? quantize(packets.get(sent).commStartTime, resolution) :
+							 Double.POSITIVE_INFINITY;
+			double next = Math.min(arrival, director.nextFiring());
+			if (!(cycle(next) <= cycle(stopTime)))
+				break;
+			director.advance(next);
+
+			// Packets admitted at the same time arrive together, in the order of their PEs
+			while (arrival == next) {
+				PListElement plistElement = packets.get(sent);
+				PacketToken packet = new PacketToken();
+				packet.id = sent;
+				packet.x = plistElement.dstX;
+				packet.y = plistElement.dstY;
+				packet.size = plistElement.size;
+				packet.priority = plistElement.priority;
+				noc.arrive(packet, plistElement.srcX * HEIGHT + plistElement.srcY);
+				sent++;
+				arrival = sent < packets.size() ? quantize(packets.get(sent).commStartTime, resolution) :
+						  Double.POSITIVE_INFINITY;
+			}
+			noc.fire();
+		}
+
+		ArrayList<String> deliveries = new ArrayList<String>();
+		for (String delivery : noc.deliveries()) {
+			String[] fields = delivery.split(" ", 2);
+			deliveries.add(cycle(Double.parseDouble(fields[0])) + " " + fields[1]);
+		}
+		return deliveries;
+	}
+
+	protected static long cycle(double time) {
+		return Math.round(time / PERIOD);
+	}
+
+	/**
+	 * quantize() rounds a time to a clock cycle, represented as the director
+	 * represents multiples of its time resolution.
+	 */
+	protected static double quantize(double time, double resolution) {
+		return Math.round(cycle(time) * PERIOD / resolution) * resolution;
+	}
+}
@@ -0,0 +1,246 @@
+package lsi.noc.assessment22;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import lsi.noc.application.PacketToken;
+
+/**
+ * HotPathBenchmark measures the per-event cost and the allocation rate of the
+ * hot paths of the model with 10 to 10k flows in flight on an 8x8 mesh:
+ * - admit - admission of a packet by interConnect (the per-packet work of
+ *   processNewPackets()), paired with the delivery of the oldest flow, so that
+ *   the number of flows stays constant;
+ * - updatePList - a full sweep of plist, as done on every fire with
+ *   incrementalUpdate off;
+ * - incremental - an incremental update, which visits only the affected flows;
+ * - overlap - a route overlap check;
+ * - plist - insertion into plist paired with a removal (insertion used to be
+ *   sortedIndex() and a shifting insert);
+ * - statistician - accounting of a received packet by statistician, which sends
+ *   its records on every packet;
+ * - statisticianBatched - the same with records sent every 1000 packets.
+ * Destinations of the flows follow one of the contention patterns: uniform,
+ * hotspot (every flow goes to the PE in the corner), transpose ((x, y) sends
+ * to (y, x)) and neighbour ((x, y) sends to (x + 1, y)).
+ *
+ * Usage: java lsi.noc.assessment22.HotPathBenchmark [seconds per run]
+*/
+
+public class HotPathBenchmark {
+
+	protected static final double PERIOD = 1e-8;
+	protected static final int MESH = 8;
+	protected static final int PRIORITIES = 64;
+	// Packets of the flows in flight never finish during a run
+	protected static final int LONG_PACKET = 1 << 30;
+	// Number of pre-built packets and routes the operations cycle through
+	protected static final int POOL = 4096;
+
+	protected static final String[] PATTERNS = new String[] {"uniform", "hotspot", "transpose", "neighbour"};
+	protected static final int[] FLOWS = new int[] {10, 100, 1000, 10000};
+
+	public static void main(String[] args) throws Exception {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+		double warmup = seconds / 2;
+
+		System.out.println("benchmark\tpattern\tflows\tops/s\tbytes/op");
+		for (int pattern = 0; pattern < PATTERNS.length; pattern++)
+			for (int flows : FLOWS) {
+				report("admit", pattern, flows, BenchHarness.measure(admit(pattern, flows), warmup, seconds));
+				report("updatePList", pattern, flows,
+					   BenchHarness.measure(update(pattern, flows, false), warmup, seconds));
+				report("incremental", pattern, flows,
+					   BenchHarness.measure(update(pattern, flows, true), warmup, seconds));
+			}
+		for (int pattern = 0; pattern < PATTERNS.length; pattern++)
+			report("overlap", pattern, 0, BenchHarness.measure(overlap(pattern), warmup, seconds));
+		for (int flows : FLOWS)
+			report("plist", -1, flows, BenchHarness.measure(plist(flows), warmup, seconds));
+		report("statistician", -1, 0, BenchHarness.measure(statistician(1), warmup, seconds));
+		report("statisticianBatched", -1, 0, BenchHarness.measure(statistician(1000), warmup, seconds));
+	}
+
+	protected static void report(String benchmark, int pattern, int flows, BenchHarness.Result result) {
+		System.out.println(benchmark + "\t" + (pattern < 0 ? "-" : PATTERNS[pattern]) + "\t" +
+						   (flows == 0 ? "-" : Integer.toString(flows)) + "\t" +
+						   Math.round(result.opsPerSecond) + "\t" +
+						   String.format("%.1f", result.bytesPerOp));
+	}
+
+	/**
+	 * destination() picks the destination of a flow from the source.
+	 * @return PE index x * MESH + y
+	 */
+	protected static int destination(int pattern, int source, Random random) {
+		int x = source / MESH;
+		int y = source % MESH;
+		switch (pattern) {
+		case 1:
+			return 0;
+		case 2:
+			return y * MESH + x;
+		case 3:
+			return ((x + 1) % MESH) * MESH + y;
+		default:
+			return random.nextInt(MESH * MESH);
+		}
+	}
+
+	protected static PacketToken packet(int id, int priority, int size, int destination) {
+		PacketToken packet = new PacketToken();
+		packet.id = id;
+		packet.priority = priority;
+		packet.size = size;
+		packet.x = destination / MESH;
+		packet.y = destination % MESH;
+		return packet;
+	}
+
+	/**
+	 * admit() admits a packet to an interConnect with the given number of flows
+	 * in flight and delivers the oldest flow.
+	 */
+	protected static BenchHarness.Operation admit(int pattern, int flows) throws Exception {
+		TypedCompositeActor top = new TypedCompositeActor();
+		new BenchDirector(top, "director");
+		new Parameter(top, "period").setToken(new DoubleToken(PERIOD));
+		final interConnect noc = new interConnect(top, "noc");
+		noc.meshWidthParameter.setToken(new IntToken(MESH));
+		noc.meshHeightParameter.setToken(new IntToken(MESH));
+		// Without updates, the incremental mode would collect dirty flows forever
+		noc.incrementalParameter.setToken(new BooleanToken(false));
+		noc.initialize();
+
+		Random random = new Random(flows);
+		final PacketToken[] packets = new PacketToken[POOL];
+		final int[] sources = new int[POOL];
+		for (int i = 0; i < POOL; i++) {
+			sources[i] = random.nextInt(MESH * MESH);
+			packets[i] = packet(i, 1 + random.nextInt(PRIORITIES), LONG_PACKET,
+								destination(pattern, sources[i], random));
+		}
+		final ArrayDeque<PListElement> live = new ArrayDeque<PListElement>();
+		for (int i = 0; i < flows; i++)
+			live.add(noc.admit(packets[i % POOL], sources[i % POOL]));
+
+		return new BenchHarness.Operation() {
+			public void run(long iteration) throws Exception {
+				int i = (int)(iteration % POOL);
+				live.add(noc.admit(packets[i], sources[i]));
+				noc.engine.deliver(live.poll());
+				noc.engine.delivered().clear();
+			}
+		};
+	}
+
+	/**
+	 * update() updates an engine with the given number of flows in flight
+	 * one router latency after the previous update.
+	 */
+	protected static BenchHarness.Operation update(int pattern, int flows, boolean incremental) {
+		final double routerLatency = PERIOD * 3;
+		final NocEngine engine = new NocEngine(MESH, MESH, routerLatency, incremental, false);
+
+		Random random = new Random(flows);
+		for (int i = 0; i < flows; i++) {
+			int source = random.nextInt(MESH * MESH);
+			int destination = destination(pattern, source, random);
+			engine.admit(source / MESH, source % MESH, destination / MESH, destination % MESH,
+						 1 + random.nextInt(PRIORITIES), LONG_PACKET, 0.0, null);
+		}
+		engine.update(0.0);
+
+		return new BenchHarness.Operation() {
+			public void run(long iteration) {
+				engine.update((iteration + 1) * routerLatency);
+				BenchHarness.sink += engine.delivered().size();
+			}
+		};
+	}
+
+	/**
+	 * overlap() checks whether two routes of the pattern overlap.
+	 */
+	protected static BenchHarness.Operation overlap(int pattern) {
+		RouteTable routes = new RouteTable(MESH, MESH);
+		Random random = new Random(pattern);
+		final long[][] masks = new long[POOL][];
+		for (int i = 0; i < POOL; i++) {
+			int source = random.nextInt(MESH * MESH);
+			int destination = destination(pattern, source, random);
+			masks[i] = routes.mask(source / MESH, source % MESH, destination / MESH, destination % MESH);
+		}
+
+		return new BenchHarness.Operation() {
+			public void run(long iteration) {
+				int i = (int)(iteration % POOL);
+				if (RouteTable.overlap(masks[i], masks[(i * 7 + 1) % POOL]))
+					BenchHarness.sink++;
+			}
+		};
+	}
+
+	/**
+	 * plist() inserts a new element into a plist of the given size and removes a random one.
+	 */
+	protected static BenchHarness.Operation plist(final int flows) {
+		final Random random = new Random(flows);
+		final PriorityList plist = new PriorityList();
+		final PListElement[] live = new PListElement[flows];
+		for (int i = 0; i < flows; i++) {
+			live[i] = new PListElement();
+			live[i].priority = 1 + random.nextInt(PRIORITIES);
+			plist.add(live[i]);
+		}
+		// Elements are recycled, so that only the list itself is measured
+		final PListElement[] spare = new PListElement[] {new PListElement()};
+		spare[0].priority = 1;
+
+		return new BenchHarness.Operation() {
+			public void run(long iteration) {
+				PListElement element = spare[0];
+				element.priority = 1 + random.nextInt(PRIORITIES);
+				plist.add(element);
+				int victim = random.nextInt(flows);
+				spare[0] = live[victim];
+				plist.remove(live[victim]);
+				live[victim] = element;
+			}
+		};
+	}
+
+	/**
+	 * statistician() accounts a received packet of one of the 20 tasks.
+	 * @param interval number of packets between emissions of the records
+	 */
+	protected static BenchHarness.Operation statistician(int interval) throws Exception {
+		TypedCompositeActor top = new TypedCompositeActor();
+		new BenchDirector(top, "director");
+		final statistician statistician = new statistician(top, "statistician");
+		statistician.emissionIntervalParameter.setToken(new IntToken(interval));
+		statistician.initialize();
+
+		Random random = new Random(1);
+		final PacketToken[] packets = new PacketToken[POOL];
+		for (int i = 0; i < POOL; i++) {
+			double release = i * 1e-3;
+			packets[i] = packet(i % 20, 1, 1, 0);
+			packets[i].releaseTime = release;
+			packets[i].compFinishTime = release + 8e-4;
+			packets[i].commStartTime = release + 8e-4;
+			packets[i].commFinishTime = release + 8e-4 + (1 + random.nextInt(1000)) * 1e-8;
+		}
+
+		return new BenchHarness.Operation() {
+			public void run(long iteration) throws Exception {
+				statistician.process(packets[(int)(iteration % POOL)]);
+			}
+		};
+	}
+}
@@ -0,0 +1,138 @@
+package lsi.noc.assessment22;
+
+import java.util.ArrayList;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import lsi.noc.application.PacketToken;
+
+/**
+ * IncrementalUpdateCheck compares the packets delivered with incremental updates of
+ * plist with the ones delivered with full sweeps. The workload of a task table is
+ * simulated by HeadlessSimulation, and random traffic of TrafficPattern is sent through
+ * interConnect, also with fast-forward, for each of the seeds. Every run must deliver
+ * the same packets at the same times and in the same order as the full sweep. Coalesced
+ * firings are left out, as they update the engine less often and so shift delivery times.
+ * The first difference is printed and the program exits with status 1.
+ *
+ * Usage: java lsi.noc.assessment22.IncrementalUpdateCheck [task table] [stop time] [seeds] [packets]
+*/
+
+public class IncrementalUpdateCheck {
+
+	protected static final double PERIOD = 1e-8;
+	// Variants compared with the full sweep: incrementalUpdate, fastForward
+	protected static final boolean[][] VARIANTS = new boolean[][] {{true, false}, {false, true}, {true, true}};
+
+	public static void main(String[] args) throws Exception {
+		String table = args.length > 0 ? args[0] : "model/EMBS_OA2_2015_3.tasks";
+		double stopTime = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+		int seeds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int packets = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+
+		TaskSet tasks = TaskSet.load(table);
+		ArrayList<String> expected = simulate(tasks, stopTime, false);
+		compare(table + ", incrementalUpdate=true", expected, simulate(tasks, stopTime, true));
+
+		int[] patterns = new int[] {TrafficPattern.UNIFORM, TrafficPattern.BURSTY};
+		for (int pattern : patterns)
+			for (long seed = 1; seed <= seeds; seed++) {
+				expected = send(pattern, seed, packets, false, false);
+				for (boolean[] variant : VARIANTS)
+					compare(TrafficPattern.name(pattern) + " seed " + seed + ", incrementalUpdate=" + variant[0] +
+							" fastForward=" + variant[1], expected, send(pattern, seed, packets, variant[0], variant[1]));
+			}
+	}
+
+	/**
+	 * compare() exits at the first difference between the deliveries of a run
+	 * and those of the full sweep.
+	 */
+	protected static void compare(String run, ArrayList<String> expected, ArrayList<String> actual) {
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+			String first = i < expected.size() ? expected.get(i) : "none";
+			String second = i < actual.size() ? actual.get(i) : "none";
+			if (!first.equals(second)) {
+				System.out.println(run + ": delivery " + i + " is " + second + " instead of " + first);
+				System.exit(1);
+			}
+		}
+		System.out.println(run + ": " + actual.size() + " packets, all equal");
+	}
+
+	/**
+	 * simulate() runs a task table on HeadlessSimulation.
+	 * @return received packets as "time task release" lines, in the order they were received
+	 */
+	protected static ArrayList<String> simulate(TaskSet tasks, double stopTime, boolean incremental) {
+		final ArrayList<String> deliveries = new ArrayList<String>();
+		// Arbitration takes 3 cycles per router, as in interConnect
+		NocEngine engine = new NocEngine(4, 4, PERIOD * 3, incremental, false);
+		HeadlessSimulation simulation = new HeadlessSimulation(tasks, engine, PERIOD) {
+			protected void receive(PListElement plistElement) {
+				super.receive(plistElement);
+				Job job = (Job)plistElement.packet;
+				deliveries.add(time + " " + job.task.id + " " + job.releaseTime);
+			}
+		};
+		simulation.setTimeResolution(PERIOD);
+		simulation.run(stopTime);
+		return deliveries;
+	}
+
+	/**
+	 * send() sends random traffic through interConnect on a 4x4 mesh.
+	 * @return sent packets as "time port id" lines, in the order they were sent
+	 */
+	protected static ArrayList<String> send(int pattern, long seed, int packets, boolean incremental,
+											boolean fastForward) throws Exception {
+		TypedCompositeActor top = new TypedCompositeActor();
+		BenchDirector director = new BenchDirector(top, "director");
+		new Parameter(top, "period").setToken(new DoubleToken(PERIOD));
+		recordingInterConnect noc = new recordingInterConnect(top, "noc");
+		noc.incrementalParameter.setToken(new BooleanToken(incremental));
+		noc.fastForwardParameter.setToken(new BooleanToken(fastForward));
+		noc.initialize();
+
+		TrafficPattern traffic = new TrafficPattern(pattern, 4, 4, PERIOD * 3, 0.4, seed);
+		traffic.setSize(1, 300);
+		traffic.setPriorities(1, 20, false);
+		double resolution = director.getTimeResolution();
+		while (true) {
+			// Packets are sent at the start of a clock cycle
+			double arrival = traffic.injected() < packets ? quantize(traffic.nextTime(), resolution) :
+							 Double.POSITIVE_INFINITY;
+			double next = Math.min(arrival, director.nextFiring());
+			if (next == Double.POSITIVE_INFINITY)
+				break;
+			director.advance(next);
+
+			while (arrival == next) {
+				TrafficPattern.Injection injection = traffic.next();
+				PacketToken packet = new PacketToken();
+				packet.id = (int)injection.id;
+				packet.x = injection.dstX;
+				packet.y = injection.dstY;
+				packet.size = injection.size;
+				packet.priority = injection.priority;
+				packet.compFinishTime = next;
+				noc.arrive(packet, injection.srcX * 4 + injection.srcY);
+				arrival = traffic.injected() < packets ? quantize(traffic.nextTime(), resolution) :
+						  Double.POSITIVE_INFINITY;
+			}
+			noc.fire();
+		}
+		return noc.deliveries();
+	}
+
+	/**
+	 * quantize() rounds a time to a clock cycle, represented as the director
+	 * represents multiples of its time resolution.
+	 */
+	protected static double quantize(double time, double resolution) {
+		return Math.round(Math.rint(time / PERIOD) * PERIOD / resolution) * resolution;
+	}
+}
@@ -0,0 +1,107 @@
+package lsi.noc.assessment22;
+
+import java.util.Random;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.Parameter;
+
+/**
+ * MeshScalingBenchmark measures how long interConnect takes to simulate
+ * uniform random traffic as the mesh size and the injection rate grow.
+ * Each PE injects packets at exponentially distributed intervals to uniformly
+ * chosen destinations for the given amount of model time, after which the
+ * network is drained.
+ *
+ * Usage: java lsi.noc.assessment22.MeshScalingBenchmark [model time in seconds]
+*/
+
+public class MeshScalingBenchmark {
+
+	protected static final double PERIOD = 1e-8;
+	protected static final int PACKET_SIZE = 64;
+	protected static final int PRIORITIES = 32;
+
+	public static void main(String[] args) throws Exception {
+		double duration = args.length > 0 ? Double.parseDouble(args[0]) : 2e-4;
+		int[] meshes = new int[] {4, 8, 16, 32};
+		// Packets per PE per microsecond
+		double[] rates = new double[] {0.05, 0.2, 0.5};
+
+		System.out.println("mesh\trate\tpackets\tfires\twall ms\tpackets/s\tmodel s/wall s");
+		for (int mesh : meshes)
+			for (double rate : rates) {
+				Result result = run(mesh, mesh, rate, duration, 1);
+				System.out.println(mesh + "x" + mesh + "\t" + rate + "\t" + result.packets + "\t" +
+								   result.fires + "\t" + Math.round(result.wall * 1e3) + "\t" +
+								   Math.round(result.packets / result.wall) + "\t" +
+								   String.format("%.3g", result.modelTime / result.wall));
+			}
+	}
+
+	protected static class Result {
+		long packets, fires;
+		double wall, modelTime;
+	}
+
+	/**
+	 * run() simulates uniform random traffic on a width x height mesh.
+	 */
+	protected static Result run(int width, int height, double rate, double duration, long seed)
+	throws Exception {
+		TypedCompositeActor top = new TypedCompositeActor();
+		BenchDirector director = new BenchDirector(top, "director");
+		new Parameter(top, "period").setToken(new DoubleToken(PERIOD));
+		interConnect noc = new interConnect(top, "noc");
+		noc.meshWidthParameter.setToken(new IntToken(width));
+		noc.meshHeightParameter.setToken(new IntToken(height));
+		noc.initialize();
+
+		int pes = width * height;
+		Random random = new Random(seed);
+		// Next injection time of each PE
+		EventHeap<Integer> injections = new EventHeap<Integer>();
+		double meanInterval = 1e-6 / rate;
+		for (int i = 0; i < pes; i++)
+			injections.push(-Math.log(1 - random.nextDouble()) * meanInterval, i);
+
+		Result result = new Result();
+		long start = System.nanoTime();
+		while (true) {
+			double next = Math.min(injections.peekKey(), director.nextFiring());
+			if (next == Double.POSITIVE_INFINITY)
+				break;
+			director.advance(next);
+
+			// All packets injected at this time are admitted before a single update
+			while (injections.peekKey() == next) {
+				int source = injections.pop();
+				noc.admit(packet(random, result.packets, width, height, next), source);
+				result.packets++;
+				double following = next + -Math.log(1 - random.nextDouble()) * meanInterval;
+				if (following < duration)
+					injections.push(following, source);
+			}
+			noc.update();
+			result.modelTime = next;
+		}
+		result.wall = (System.nanoTime() - start) / 1e9;
+		result.fires = noc.engine.updates();
+		return result;
+	}
+
+	protected static RecordToken packet(Random random, long id, int width, int height, double time)
+	throws Exception {
+		return new RecordToken(
+			new String[] {"id", "priority", "size", "x", "y", "period", "releasetime",
+						  "comptime", "compfinishtime", "commfinishtime"},
+			new Token[] {new IntToken((int)id), new IntToken(1 + random.nextInt(PRIORITIES)),
+						 new IntToken(PACKET_SIZE), new IntToken(random.nextInt(width)),
+						 new IntToken(random.nextInt(height)), new DoubleToken(0.0),
+						 new DoubleToken(time), new DoubleToken(0.0), new DoubleToken(time),
+						 new DoubleToken(0.0)});
+	}
+}
@@ -0,0 +1,101 @@
+package lsi.noc.assessment22;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * PriorityListBenchmark measures the throughput of plist churn - admitting
+ * a new flow and delivering an existing one - with 1k to 100k flows in flight.
+ * It compares PriorityList with the priority-sorted Vector that plist used
+ * to be (linear search for the insertion index, shifting insert and remove).
+ *
+ * Usage: java lsi.noc.assessment22.PriorityListBenchmark [seconds per run]
+*/
+
+public class PriorityListBenchmark {
+
+	protected static final int PRIORITIES = 64;
+
+	public static void main(String[] args) {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+		int[] flows = new int[] {1000, 10000, 50000, 100000};
+
+		System.out.println("flows\tVector ops/s\tPriorityList ops/s");
+		for (int n : flows) {
+			// First round warms up the JIT
+			vector(n, seconds / 4);
+			priorityList(n, seconds / 4);
+			System.out.println(n + "\t" + Math.round(vector(n, seconds)) + "\t" +
+							   Math.round(priorityList(n, seconds)));
+		}
+	}
+
+	/**
+	 * vector() churns a priority-sorted Vector of n elements.
+	 * @return operations per second
+	 */
+	protected static double vector(int n, double seconds) {
+		Random random = new Random(n);
+		Vector<PListElement> plist = new Vector<PListElement>();
+		for (int i = 0; i < n; i++) {
+			PListElement element = element(random);
+			plist.insertElementAt(element, sortedIndex(plist, element));
+		}
+
+		long operations = 0;
+		long start = System.nanoTime();
+		long end = start + (long)(seconds * 1e9);
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 64; i++) {
+				PListElement element = element(random);
+				plist.insertElementAt(element, sortedIndex(plist, element));
+				plist.remove(random.nextInt(plist.size()));
+			}
+			operations += 64;
+		}
+		return operations / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * priorityList() churns a PriorityList of n elements.
+	 * @return operations per second
+	 */
+	protected static double priorityList(int n, double seconds) {
+		Random random = new Random(n);
+		PriorityList plist = new PriorityList();
+		// Live elements, so that a random one can be delivered
+		PListElement[] live = new PListElement[n];
+		for (int i = 0; i < n; i++) {
+			live[i] = element(random);
+			plist.add(live[i]);
+		}
+
+		long operations = 0;
+		long start = System.nanoTime();
+		long end = start + (long)(seconds * 1e9);
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 64; i++) {
+				PListElement element = element(random);
+				plist.add(element);
+				int victim = random.nextInt(n);
+				plist.remove(live[victim]);
+				live[victim] = element;
+			}
+			operations += 64;
+		}
+		return operations / ((System.nanoTime() - start) / 1e9);
+	}
+
+	protected static PListElement element(Random random) {
+		PListElement element = new PListElement();
+		element.priority = 1 + random.nextInt(PRIORITIES);
+		return element;
+	}
+
+	protected static int sortedIndex(Vector<PListElement> plist, PListElement newElement) {
+		for (int i = 0; i < plist.size(); i++)
+			if (newElement.priority < plist.elementAt(i).priority)
+				return i;
+		return plist.size();
+	}
+}
@@ -0,0 +1,117 @@
+package lsi.noc.assessment22;
+
+import java.util.Random;
+
+/**
+ * RouteOverlapCheck compares the route bitsets of RouteTable with the boolean
+ * expression interConnect used to decide whether two XY routes share a link.
+ * All pairs of routes are compared on a 4x4 mesh and on non-square meshes, and
+ * randomly chosen pairs on larger meshes. The first difference is printed and
+ * the program exits with status 1.
+ *
+ * Usage: java lsi.noc.assessment22.RouteOverlapCheck [random pairs] [seed]
+*/
+
+public class RouteOverlapCheck {
+
+	public static void main(String[] args) {
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+		int[][] exhaustive = new int[][] {{4, 4}, {3, 5}, {5, 3}, {2, 7}, {1, 4}};
+		for (int[] mesh : exhaustive)
+			checkAll(mesh[0], mesh[1]);
+
+		Random random = new Random(seed);
+		int[][] sampled = new int[][] {{8, 8}, {16, 9}, {7, 32}, {32, 32}};
+		for (int[] mesh : sampled)
+			checkRandom(mesh[0], mesh[1], samples, random);
+	}
+
+	/**
+	 * checkAll() compares the two checks over every pair of routes of a mesh.
+	 */
+	protected static void checkAll(int width, int height) {
+		RouteTable routes = new RouteTable(width, height);
+		long pairs = 0, overlapping = 0;
+
+		for (int src1 = 0; src1 < width * height; src1++)
+			for (int dst1 = 0; dst1 < width * height; dst1++)
+				for (int src2 = 0; src2 < width * height; src2++)
+					for (int dst2 = 0; dst2 < width * height; dst2++) {
+						if (compare(routes, height, src1, dst1, src2, dst2))
+							overlapping++;
+						pairs++;
+					}
+		System.out.println(width + "x" + height + ": " + pairs + " pairs, " + overlapping + " overlapping, all equal");
+	}
+
+	/**
+	 * checkRandom() compares the two checks over random pairs of routes of a mesh.
+	 */
+	protected static void checkRandom(int width, int height, int samples, Random random) {
+		RouteTable routes = new RouteTable(width, height);
+		int nodes = width * height;
+		long overlapping = 0;
+
+		for (int i = 0; i < samples; i++) {
+			int src1 = random.nextInt(nodes);
+			int dst1 = random.nextInt(nodes);
+			int src2 = random.nextInt(nodes);
+			// Half of the second routes share a row or column with the first one,
+			// as uniformly chosen routes on large meshes rarely overlap
+			int dst2 = random.nextBoolean() ? random.nextInt(nodes) :
+					   (random.nextBoolean() ? src1 % height + random.nextInt(width) * height :
+						dst1 / height * height + random.nextInt(height));
+			if (random.nextBoolean())
+				src2 = src1 % height + random.nextInt(width) * height;
+			if (compare(routes, height, src1, dst1, src2, dst2))
+				overlapping++;
+		}
+		System.out.println(width + "x" + height + ": " + samples + " random pairs, " + overlapping + " overlapping, all equal");
+	}
+
+	/**
+	 * compare() checks one pair of routes given by router numbers x * height + y
+	 * and exits if the checks differ.
+	 * @return boolean representing overlapping status
+	 */
+	protected static boolean compare(RouteTable routes, int height, int src1, int dst1, int src2, int dst2) {
+		int src1x = src1 / height, src1y = src1 % height;
+		int dst1x = dst1 / height, dst1y = dst1 % height;
+		int src2x = src2 / height, src2y = src2 % height;
+		int dst2x = dst2 / height, dst2y = dst2 % height;
+
+		boolean expected = legacyOverlap(src1x, src1y, dst1x, dst1y, src2x, src2y, dst2x, dst2y);
+		boolean actual = RouteTable.overlap(routes.mask(src1x, src1y, dst1x, dst1y),
+											routes.mask(src2x, src2y, dst2x, dst2y));
+		if (expected != actual) {
+			System.out.println("Routes (" + src1x + "," + src1y + ")->(" + dst1x + "," + dst1y + ") and (" +
+							   src2x + "," + src2y + ")->(" + dst2x + "," + dst2y + "): expression " +
+							   expected + ", bitsets " + actual);
+			System.exit(1);
+		}
+		return actual;
+	}
+
+	/**
+	 * legacyOverlap() is the route overlap check of interConnect before RouteTable.
+	 */
+	protected static boolean legacyOverlap(int src1x, int src1y, int dst1x, int dst1y,
+										   int src2x, int src2y, int dst2x, int dst2y) {
+		// Route overlap occurs when two routes have same direction horizontally or
+		// vertically and share a part of the path, i.e. share same links between routers
+		if (((src1y == src2y) &&						// Routes start from the same horizontal line
+			 ((src1x > dst1x) && (src2x > dst2x) ||		// Routed in the same direction horizontally
+		      (src1x < dst1x) && (src2x < dst2x)) &&	// Routed in the same direction horizontally
+		     ((src1x > dst2x) && (src2x > dst1x) ||		// Overlapping restriction in the positive horizontal direction
+ 		      (src1x < dst2x) && (src2x < dst1x))) ||	// Overlapping restriction in the negative horizontal direction
+			((dst1x == dst2x) &&						// Routes start from the same vertical line
+		     ((src1y > dst1y) && (src2y > dst2y) ||		// Routed in the same direction vertically
+		      (src1y < dst1y) && (src2y < dst2y)) &&	// Routed in the same direction vertically
+		     ((src1y > dst2y) && (src2y > dst1y) ||		// Overlapping restriction in the positive vertical direction
+		      (src1y < dst2y) && (src2y < dst1y))))		// Overlapping restriction in the negative vertical direction
+		    return true;
+		return false;
+	}
+}
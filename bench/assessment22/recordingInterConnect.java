@@ -0,0 +1,69 @@
+package lsi.noc.assessment22;
+
+import java.util.ArrayList;
+
+import ptolemy.data.Token;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
+
+/**
+ * recordingInterConnect is an interConnect which checks can drive without
+ * connecting its ports. Packets given to arrive() are taken by the next firing
+ * as if they had arrived at the input ports, and every packet the actor sends
+ * out is recorded with the time it is sent at and its output port.
+*/
+
+@SuppressWarnings("serial")
+public class recordingInterConnect extends interConnect {
+
+	// Packets waiting for the next firing and the PEs they arrive from
+	protected ArrayList<Token> arrivals;
+	protected ArrayList<Integer> sources;
+	// Sent packets as "time port id" lines, in the order they were sent
+	protected ArrayList<String> deliveries;
+
+	public recordingInterConnect(CompositeEntity container, String name)
+	throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+		arrivals = new ArrayList<Token>();
+		sources = new ArrayList<Integer>();
+		deliveries = new ArrayList<String>();
+	}
+
+	/**
+	 * arrive() makes a packet arrive from the given PE at the next firing.
+	 * @param token packet record or PacketToken
+	 * @param source index of the PE
+	 */
+	public void arrive(Token token, int source) {
+		arrivals.add(token);
+		sources.add(source);
+	}
+
+	/**
+	 * deliveries() returns the sent packets as "time port id" lines.
+	 * @return list of lines in the order the packets were sent
+	 */
+	public ArrayList<String> deliveries() {
+		return deliveries;
+	}
+
+	protected boolean hasNewPackets() throws IllegalActionException {
+		return !arrivals.isEmpty();
+	}
+
+	protected void processNewPackets() throws IllegalActionException {
+		for (int i = 0; i < arrivals.size(); i++)
+			admit(arrivals.get(i), sources.get(i));
+		arrivals.clear();
+		sources.clear();
+	}
+
+	protected PacketToken outputPacket(PListElement plistElement) {
+		PacketToken packet = super.outputPacket(plistElement);
+		deliveries.add(getDirector().getModelTime().getDoubleValue() + " " + plistElement.destPort + " " + packet.id);
+		return packet;
+	}
+}
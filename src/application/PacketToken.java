@@ -0,0 +1,145 @@
+package lsi.noc.application;
+
+import java.util.Arrays;
+
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * PacketToken carries the message of a task from the producer through the NoC
+ * and the consumer to the statistician. Its fields are those of the packet
+ * records the actors used to merge at every stage, but they are primitives that
+ * each stage sets in place: the producer sets compFinishTime, the NoC sets
+ * commStartTime, srcX and srcY, and the consumer sets commFinishTime. A stage
+ * only changes a packet before sending it on, and the packet is not changed
+ * after it leaves the consumer, so readers further on see a fixed token.
+ *
+ * The token is converted to a RecordToken only where it is displayed: toString()
+ * prints it as the record with the same fields. Tokens of the GENERAL type pass
+ * through Publishers, Subscribers and Displays unchanged.
+*/
+
+@SuppressWarnings("serial")
+public class PacketToken extends Token {
+
+	// Destination, size in flits, priority and id of the task
+	public int x, y, size, priority, id;
+	// Source router, -1 until the packet has been sent over the NoC
+	public int srcX, srcY;
+	public double releaseTime, period, compTime;
+	// Timestamps set by the stages, NaN until they are set
+	public double compFinishTime, commStartTime, commFinishTime;
+
+	public PacketToken() {
+		srcX = -1;
+		srcY = -1;
+		compFinishTime = Double.NaN;
+		commStartTime = Double.NaN;
+		commFinishTime = Double.NaN;
+	}
+
+	/**
+	 * valueOf() returns the packet carried by a token. Packet records, such as
+	 * the ones assembled for the released tasks, are decoded into a new packet.
+	 * @param token
+	 * @return packet
+	 * @throws IllegalActionException if the token is not a packet
+	 */
+	public static PacketToken valueOf(Token token) throws IllegalActionException {
+		if (token instanceof PacketToken)
+			return (PacketToken)token;
+		if (!(token instanceof RecordToken))
+			throw new IllegalActionException("Token " + token + " is not a packet");
+
+		RecordToken record = (RecordToken)token;
+		PacketToken packet = new PacketToken();
+		packet.x = intField(record, "x", 0);
+		packet.y = intField(record, "y", 0);
+		packet.size = intField(record, "size", 0);
+		packet.priority = intField(record, "priority", 0);
+		packet.id = intField(record, "id", 0);
+		packet.srcX = intField(record, "src_x", -1);
+		packet.srcY = intField(record, "src_y", -1);
+		packet.releaseTime = doubleField(record, "releasetime", 0);
+		packet.period = doubleField(record, "period", 0);
+		packet.compTime = doubleField(record, "comptime", 0);
+		packet.compFinishTime = doubleField(record, "compfinishtime", Double.NaN);
+		packet.commStartTime = doubleField(record, "commstarttime", Double.NaN);
+		packet.commFinishTime = doubleField(record, "commfinishtime", Double.NaN);
+		return packet;
+	}
+
+	protected static int intField(RecordToken record, String label, int missing) {
+		Token value = record.get(label);
+		return value == null ? missing : ((IntToken)value).intValue();
+	}
+
+	protected static double doubleField(RecordToken record, String label, double missing) {
+		Token value = record.get(label);
+		return value == null ? missing : ((DoubleToken)value).doubleValue();
+	}
+
+	/**
+	 * toRecord() returns the record with the fields of the packet.
+	 * Source and timestamps are left out until they are set.
+	 * @return record
+	 * @throws IllegalActionException
+	 */
+	public RecordToken toRecord() throws IllegalActionException {
+		String[] labels = new String[13];
+		Token[] values = new Token[13];
+		int count = 0;
+
+		labels[count] = "x";
+		values[count++] = new IntToken(x);
+		labels[count] = "y";
+		values[count++] = new IntToken(y);
+		labels[count] = "size";
+		values[count++] = new IntToken(size);
+		labels[count] = "priority";
+		values[count++] = new IntToken(priority);
+		labels[count] = "id";
+		values[count++] = new IntToken(id);
+		labels[count] = "releasetime";
+		values[count++] = new DoubleToken(releaseTime);
+		labels[count] = "period";
+		values[count++] = new DoubleToken(period);
+		labels[count] = "comptime";
+		values[count++] = new DoubleToken(compTime);
+		if (!Double.isNaN(compFinishTime)) {
+			labels[count] = "compfinishtime";
+			values[count++] = new DoubleToken(compFinishTime);
+		}
+		if (!Double.isNaN(commFinishTime)) {
+			labels[count] = "commfinishtime";
+			values[count++] = new DoubleToken(commFinishTime);
+		}
+		if (!Double.isNaN(commStartTime)) {
+			labels[count] = "commstarttime";
+			values[count++] = new DoubleToken(commStartTime);
+		}
+		if (srcX >= 0) {
+			labels[count] = "src_x";
+			values[count++] = new IntToken(srcX);
+			labels[count] = "src_y";
+			values[count++] = new IntToken(srcY);
+		}
+		return new RecordToken(Arrays.copyOf(labels, count), Arrays.copyOf(values, count));
+	}
+
+	/**
+	 * toString() prints the packet as its record.
+	 * @return string
+	 */
+	public String toString() {
+		try {
+			return toRecord().toString();
+		}
+		catch (IllegalActionException exception) {
+			return "packet " + id;
+		}
+	}
+}
@@ -3,18 +3,18 @@ package lsi.noc.application.greenpringle;
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
 import ptolemy.data.DoubleToken;
-import ptolemy.data.RecordToken;
-import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
 import lsi.noc.application.PlatformCommunicationInterface;
 
 /**
  * Consumer receives packets, updates their arrival times and 
- * sends them to the output port.
+ * sends them to the output port. The arrival time is set in place
+ * in the PacketToken, which is sent on as it is.
  */
 
 @SuppressWarnings("serial")
@@ -34,6 +34,7 @@ public class StandaloneVCConsumerCBwithPriority extends PlatformCommunicationInt
 		//port instantiations
 		packet_out   = new TypedIOPort(this, "packet_out", false, true);
         data_in  = new TypedIOPort(this, "data_in", true, false);
+        packet_out.setTypeEquals(BaseType.GENERAL);
         
         periodParameter = new Parameter(this, "Period");
         periodParameter.setTypeEquals(BaseType.DOUBLE);
@@ -59,18 +60,11 @@ public class StandaloneVCConsumerCBwithPriority extends PlatformCommunicationInt
     	Time ctime = getDirector().getModelTime();
        
         if (data_in.hasToken(0)) {
-    		RecordToken inputRecord = (RecordToken)data_in.get(0);
+    		PacketToken packet = PacketToken.valueOf(data_in.get(0));
      			
-			String[] labels = new String[1];
-			Token[] values = new Token[1];
-			
-			labels[0] = "commfinishtime";
-			values[0] = new DoubleToken(ctime.getDoubleValue()+period); // reception ends at the end of the clock cycle
-			RecordToken finishTime = new RecordToken(labels, values); 
-			
-			inputRecord = RecordToken.merge(finishTime, inputRecord); // add the communication finish time to the RecordToken
+			packet.commFinishTime = ctime.getDoubleValue()+period; // reception ends at the end of the clock cycle
  			
-			packet_out.send(0, inputRecord); // sends out the packet received notification 
+			packet_out.send(0, packet); // sends out the packet received notification 
         }
     }
     
@@ -1,35 +1,86 @@
 package lsi.noc.application.greenpringle;
 
-import java.util.Vector;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
-import ptolemy.data.DoubleToken;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.Token;
+import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.BaseType;
-import ptolemy.data.type.RecordType;
-import ptolemy.data.type.Type;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
 import lsi.noc.application.PlatformCommunicationInterface;
 
 /**
  * This producer is based on the one created by Leandro Soares Indrusiak:
  * it accepts tasks for execution, executes them for the specified period of time
  * and on completion it sends their messages to the output port.
+ * Task records are decoded into PacketTokens on arrival, and the packet
+ * of a task is sent with its computation finish time set in place.
+ * 
+ * Buffered tasks are run in the order of their priority (lower value means higher
+ * priority) and, at equal priorities, in the order of their arrival. With priorityOrder
+ * set to false they are run in the order of their arrival only. With preemptive set to
+ * true, a running task is preempted by the arrival of a task of higher priority and
+ * resumes later for the rest of its computation time.
+ * 
+ * The queueing delay of a task is the time from its arrival to the start of its
+ * computation. With reportQueueing set to true, the number of tasks, the average and
+ * maximum queueing delays and the number of preemptions of the PE are printed at wrapup.
  */
 
 @SuppressWarnings("serial")
 public class StandaloneVCProducerCBwithPriorityNonpreemptiveScheduler extends PlatformCommunicationInterface {
 
+	// Buffered task, which may have been preempted
+	protected static class ReadyTask {
+		PacketToken packet;
+		int priority;
+		// Order of arrival, which breaks ties between equal priorities
+		long sequence;
+		double arrivalTime;
+		// Computation time left to run
+		double remaining;
+		boolean started;
+	}
+
+	// Orders of the buffered tasks - by priority, then by arrival, or by arrival only
+	protected static final Comparator<ReadyTask> PRIORITY_ORDER = new Comparator<ReadyTask>() {
+		public int compare(ReadyTask first, ReadyTask second) {
+			if (first.priority != second.priority)
+				return first.priority < second.priority ? -1 : 1;
+			return Long.compare(first.sequence, second.sequence);
+		}
+	};
+	protected static final Comparator<ReadyTask> ARRIVAL_ORDER = new Comparator<ReadyTask>() {
+		public int compare(ReadyTask first, ReadyTask second) {
+			return Long.compare(first.sequence, second.sequence);
+		}
+	};
+
 	protected Time taskReadyTime;
 	TypedIOPort trigger, data_out; // port declarations
-	protected Vector<RecordToken> taskBuffer; 
+	protected PriorityQueue<ReadyTask> taskBuffer; 
 	protected boolean taskBusy;
-	protected RecordToken runningTask;
-    protected String[] labels;
+	protected PacketToken runningTask;
+	protected ReadyTask running;
+
+	public Parameter priorityOrderParameter, preemptiveParameter, reportQueueingParameter;
+	protected boolean priorityOrder = true;
+	protected boolean preemptive = false;
+	protected boolean reportQueueing = false;
+	// Number of tasks that have arrived
+	protected long arrivals;
+
+	// Queueing delay statistics
+	protected long startedTasks, preemptions;
+	protected double totalQueueingDelay, maximumQueueingDelay;
 
     /**
      * Constructor instantiates ports.
@@ -46,34 +97,36 @@ public class StandaloneVCProducerCBwithPriorityNonpreemptiveScheduler extends Pl
 		trigger = new TypedIOPort(this, "trigger", true, false); // receives tokens representing tasks triggered to execute
 		data_out = new TypedIOPort(this, "data_out", false, true);
 		
-		// Labels and types for a packet 
-        labels = new String[10];
-        Type[] types = new Type[10];
-        
-        labels[0] = "x";
-        labels[1] = "y";
-        labels[2] = "size";
-        labels[3] = "priority";
-        labels[4] = "id";
-        labels[5] = "releasetime";
-        labels[6] = "period";
-        labels[7] = "comptime";
-        labels[8] = "compfinishtime";
-        labels[9] = "commfinishtime";
-
-        types[0] = BaseType.INT;
-        types[1] = BaseType.INT;
-        types[2] = BaseType.INT;
-        types[3] = BaseType.INT;
-        types[4] = BaseType.INT;
-        types[5] = BaseType.DOUBLE;
-        types[6] = BaseType.DOUBLE;
-        types[7] = BaseType.DOUBLE;
-        types[8] = BaseType.DOUBLE;
-        types[9] = BaseType.DOUBLE;
-
-        RecordType declaredType = new RecordType(labels, types);
-        data_out.setTypeEquals(declaredType);
+		// Packets are PacketTokens, which are of the general type
+		data_out.setTypeEquals(BaseType.GENERAL);
+
+		priorityOrderParameter = new Parameter(this, "priorityOrder");
+		priorityOrderParameter.setTypeEquals(BaseType.BOOLEAN);
+		priorityOrderParameter.setExpression("true");
+
+		preemptiveParameter = new Parameter(this, "preemptive");
+		preemptiveParameter.setTypeEquals(BaseType.BOOLEAN);
+		preemptiveParameter.setExpression("false");
+
+		reportQueueingParameter = new Parameter(this, "reportQueueing");
+		reportQueueingParameter.setTypeEquals(BaseType.BOOLEAN);
+		reportQueueingParameter.setExpression("false");
+	}
+
+	/**
+	 * attributeChanged() reads the scheduling and reporting parameters.
+	 * @param attribute
+	 * @throws IllegalActionException
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if (attribute == priorityOrderParameter)
+			priorityOrder = ((BooleanToken)priorityOrderParameter.getToken()).booleanValue();
+		else if (attribute == preemptiveParameter)
+			preemptive = ((BooleanToken)preemptiveParameter.getToken()).booleanValue();
+		else if (attribute == reportQueueingParameter)
+			reportQueueing = ((BooleanToken)reportQueueingParameter.getToken()).booleanValue();
+		else
+			super.attributeChanged(attribute);
 	}
 
 	/**
@@ -84,14 +137,21 @@ public class StandaloneVCProducerCBwithPriorityNonpreemptiveScheduler extends Pl
 
 		taskBusy=false;
 		runningTask = null;
+		running = null;
 
-		taskBuffer=new Vector<RecordToken>();
+		taskBuffer=new PriorityQueue<ReadyTask>(16, priorityOrder ? PRIORITY_ORDER : ARRIVAL_ORDER);
+		arrivals = 0;
+		startedTasks = 0;
+		preemptions = 0;
+		totalQueueingDelay = 0;
+		maximumQueueingDelay = 0;
 	}
 
 	/**
 	 * fire() accepts incoming records, buffers them,
 	 * executes for the period of time specified by records and
-	 * sends their packets to the output port.
+	 * sends their packets to the output port. In preemptive mode, the running
+	 * task is put back into the buffer if a task of higher priority is waiting.
 	 */
 	public void fire() throws IllegalActionException {
 		Time ctime = getDirector().getModelTime();
@@ -100,12 +160,10 @@ public class StandaloneVCProducerCBwithPriorityNonpreemptiveScheduler extends Pl
 		while(trigger.hasToken(0)){
 			
 			Token newTask = trigger.get(0);
-			if(newTask instanceof RecordToken){
-				
-				RecordToken task = (RecordToken)newTask;
+			if(newTask instanceof RecordToken || newTask instanceof PacketToken){
 				
 				// adds new task to scheduler process list at the respective priority level
-				addToTaskBuffer(task);				
+				addToTaskBuffer(PacketToken.valueOf(newTask));				
 			}			
 		}
 		
@@ -116,41 +174,73 @@ public class StandaloneVCProducerCBwithPriorityNonpreemptiveScheduler extends Pl
 				
 				taskBusy= false;
 								
-				// updates "compfinishtime" field of the task representation (or adds one if it hasn't)
-				String[] labels = new String[1];
-				Token[] values = new Token[1];
-				
-				labels[0] = "compfinishtime";
-				values[0] = new DoubleToken(ctime.getDoubleValue());
-				RecordToken finishTime = new RecordToken(labels, values);
-				
-				runningTask = RecordToken.merge(finishTime, runningTask);
+				// updates "compfinishtime" field of the packet
+				runningTask.compFinishTime = ctime.getDoubleValue();
 				
 				// packet transmission
 				data_out.send(0, runningTask);				
+				running = null;
 			}	
 		}
 		
+		if(taskBusy && preemptive && !taskBuffer.isEmpty() && taskBuffer.peek().priority < running.priority){
+			// The running task waits for the rest of its computation; the firing
+			// requested for its completion finds it not ready and does nothing
+			running.remaining = taskReadyTime.getDoubleValue() - ctime.getDoubleValue();
+			taskBuffer.add(running);
+			running = null;
+			taskBusy = false;
+			preemptions++;
+		}
+		
 		if(!taskBusy){ // if CPU idle, schedule the highest priority task from the queues
 			if(!taskBuffer.isEmpty()){ // if there are queued tasks at this priority
 				
-				runningTask = (RecordToken)taskBuffer.remove(0);
+				running = taskBuffer.poll();
+				runningTask = running.packet;
 				
 				taskBusy=true;
 				
-				double comptime = ((DoubleToken)runningTask.get("comptime")).doubleValue();
+				if(!running.started){
+					running.started = true;
+					double delay = ctime.getDoubleValue() - running.arrivalTime;
+					startedTasks++;
+					totalQueueingDelay += delay;
+					maximumQueueingDelay = Math.max(maximumQueueingDelay, delay);
+				}
 				
-		        taskReadyTime = ctime.add(comptime);
+		        taskReadyTime = ctime.add(running.remaining);
 				getDirector().fireAt(this, taskReadyTime);
 			}
 		} 
 	}
 
+	/**
+	 * wrapup() prints the queueing delays of the PE if they are to be reported.
+	 * @throws IllegalActionException
+	 */
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+
+		if (reportQueueing && startedTasks > 0)
+			System.out.println(getFullName() + ": " + startedTasks + " tasks, queueing delay " +
+							   String.format("%.8f", totalQueueingDelay / startedTasks) + " average, " +
+							   String.format("%.8f", maximumQueueingDelay) + " maximum, " +
+							   preemptions + " preemptions");
+	}
+
 	/**
 	 * addToTaskBuffer() buffers task for a later processing.
 	 * @param packet
 	 */
-	protected void addToTaskBuffer(RecordToken packet) {
-		taskBuffer.addElement(packet);		
+	protected void addToTaskBuffer(PacketToken packet) {
+		ReadyTask task = new ReadyTask();
+		task.packet = packet;
+		task.priority = packet.priority;
+		task.sequence = arrivals++;
+		task.arrivalTime = getDirector().getModelTime().getDoubleValue();
+		task.remaining = packet.compTime;
+		task.started = false;
+		taskBuffer.add(task);
 	}
 }
@@ -0,0 +1,263 @@
+package lsi.noc.assessment22;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * DesignSpaceExplorer evaluates candidate task-to-PE mappings and priority
+ * orders of a task set by running HeadlessSimulation on each of them, and ranks
+ * the candidates by the end-to-end latencies of their tasks. Candidates are
+ * simulated in parallel, each by its own engine on its own copy of the task
+ * set, so that the simulations share no mutable state.
+ *
+ * Candidates can be pruned by LatencyBoundAnalysis before they are simulated:
+ * a candidate is then only simulated if every task has a communication
+ * latency bound within its period.
+ *
+ * A candidate is ranked by its worst task - the largest ratio of the maximum
+ * end-to-end latency of a task to its period - and then by the sum of these
+ * ratios over all tasks. A task which has not received any packet by the stop
+ * time is given infinite latency.
+ *
+ * Usage: java lsi.noc.assessment22.DesignSpaceExplorer task-table [name=value ...]
+ * with parameters candidates (1000), seed (1), threads (all cores), top (10), prune (false),
+ * stopTime (0.5), period (1e-8), timeResolution (1e-8), meshWidth (4) and meshHeight (4).
+*/
+
+public class DesignSpaceExplorer {
+
+	public static class Candidate {
+		// Position of the candidate in the order of generation
+		public int index;
+		public TaskSet tasks;
+		public LatencyStatistics statistics;
+		// Largest and total ratio of the maximum end-to-end latency of a task to its period
+		public double worst, total;
+	}
+
+	// Order of the candidates from the best to the worst
+	public static final Comparator<Candidate> RANKING = new Comparator<Candidate>() {
+		public int compare(Candidate first, Candidate second) {
+			if (first.worst != second.worst)
+				return Double.compare(first.worst, second.worst);
+			if (first.total != second.total)
+				return Double.compare(first.total, second.total);
+			return Integer.compare(first.index, second.index);
+		}
+	};
+
+	protected int meshWidth, meshHeight;
+	// Clock period, router latency and time resolution of the simulations
+	protected double period, routerLatency, timeResolution;
+	protected double stopTime;
+	// Analysis used for pruning the candidates, null if they are not pruned
+	protected LatencyBoundAnalysis analysis;
+	// Number of candidates pruned by the latest exploration
+	protected int pruned;
+
+	/**
+	 * Constructor sets up the platform every candidate is simulated on.
+	 * @param meshWidth
+	 * @param meshHeight
+	 * @param period clock period
+	 * @param timeResolution
+	 * @param stopTime time each candidate is simulated for
+	 */
+	public DesignSpaceExplorer(int meshWidth, int meshHeight, double period,
+							   double timeResolution, double stopTime) {
+		this.meshWidth = meshWidth;
+		this.meshHeight = meshHeight;
+		this.period = period;
+		// Arbitration takes 3 cycles per router, as in interConnect
+		this.routerLatency = period * 3;
+		this.timeResolution = timeResolution;
+		this.stopTime = stopTime;
+		analysis = null;
+		pruned = 0;
+	}
+
+	/**
+	 * setPruning() sets whether candidates whose latency bounds exceed
+	 * the periods of their tasks are dropped without simulation.
+	 * @param prune
+	 */
+	public void setPruning(boolean prune) {
+		analysis = prune ? new LatencyBoundAnalysis(meshWidth, meshHeight, period) : null;
+	}
+
+	/**
+	 * pruned() returns the number of candidates dropped by the latest exploration.
+	 * @return integer number of candidates
+	 */
+	public int pruned() {
+		return pruned;
+	}
+
+	/**
+	 * generate() returns the given task set followed by candidates in which every
+	 * task runs on a random PE and the priorities of the tasks are shuffled.
+	 * Destinations of the packets are kept, as they are given by the application.
+	 * @param base
+	 * @param count total number of candidates
+	 * @param seed
+	 * @return list of task sets
+	 */
+	public List<TaskSet> generate(TaskSet base, int count, long seed) {
+		Random random = new Random(seed);
+		ArrayList<TaskSet> candidates = new ArrayList<TaskSet>(count);
+		ArrayList<Integer> priorities = new ArrayList<Integer>();
+
+		for (int i = 0; i < base.size(); i++)
+			priorities.add(base.get(i).priority);
+		if (count > 0)
+			candidates.add(base.copy());
+		while (candidates.size() < count) {
+			TaskSet tasks = base.copy();
+			Collections.shuffle(priorities, random);
+			for (int i = 0; i < tasks.size(); i++) {
+				TaskSet.Task task = tasks.get(i);
+				task.srcX = random.nextInt(meshWidth);
+				task.srcY = random.nextInt(meshHeight);
+				task.priority = priorities.get(i);
+			}
+			candidates.add(tasks);
+		}
+		return candidates;
+	}
+
+	/**
+	 * evaluate() simulates a single candidate.
+	 * @param tasks
+	 * @param index position of the candidate
+	 * @return evaluated candidate
+	 */
+	public Candidate evaluate(TaskSet tasks, int index) {
+		NocEngine engine = new NocEngine(meshWidth, meshHeight, routerLatency, true, false);
+		HeadlessSimulation simulation = new HeadlessSimulation(tasks, engine, period);
+		simulation.setTimeResolution(timeResolution);
+		// Candidates are ranked by their maxima, and histograms of all of them would not fit in memory
+		simulation.keepHistograms(false);
+		simulation.run(stopTime);
+
+		Candidate candidate = new Candidate();
+		candidate.index = index;
+		candidate.tasks = tasks;
+		candidate.statistics = simulation.statistics();
+		candidate.worst = 0;
+		candidate.total = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			TaskSet.Task task = tasks.get(i);
+			double ratio = candidate.statistics.count(task.id) == 0 ? Double.POSITIVE_INFINITY :
+						   candidate.statistics.maximum(task.id, LatencyStatistics.END_TO_END) / task.period;
+			candidate.worst = Math.max(candidate.worst, ratio);
+			candidate.total += ratio;
+		}
+		return candidate;
+	}
+
+	/**
+	 * explore() evaluates the candidates on the given number of threads
+	 * and ranks them. Pruned candidates are left out of the ranking.
+	 * @param candidates
+	 * @param threads
+	 * @return candidates from the best to the worst
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a simulation fails
+	 */
+	public List<Candidate> explore(List<TaskSet> candidates, int threads)
+	throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Candidate>> futures = new ArrayList<Future<Candidate>>(candidates.size());
+		ArrayList<Candidate> ranking = new ArrayList<Candidate>(candidates.size());
+
+		pruned = 0;
+		try {
+			for (int i = 0; i < candidates.size(); i++) {
+				final TaskSet tasks = candidates.get(i);
+				final int index = i;
+				// The analysis takes microseconds, so it is not worth a task of its own
+				if (analysis != null && !analysis.schedulable(tasks)) {
+					pruned++;
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Candidate>() {
+					public Candidate call() {
+						return evaluate(tasks, index);
+					}
+				}));
+			}
+			for (Future<Candidate> future : futures)
+				ranking.add(future.get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		Collections.sort(ranking, RANKING);
+		return ranking;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.DesignSpaceExplorer task-table [name=value ...]");
+			System.exit(1);
+		}
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		parameters.put("candidates", "1000");
+		parameters.put("seed", "1");
+		parameters.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		parameters.put("top", "10");
+		parameters.put("prune", "false");
+		parameters.put("stopTime", "0.5");
+		parameters.put("period", "1e-8");
+		parameters.put("timeResolution", "1e-8");
+		parameters.put("meshWidth", "4");
+		parameters.put("meshHeight", "4");
+		for (int i = 1; i < args.length; i++) {
+			String[] pair = args[i].split("=", 2);
+			if (pair.length != 2 || !parameters.containsKey(pair[0]))
+				throw new IllegalArgumentException("Unknown parameter " + args[i]);
+			parameters.put(pair[0], pair[1]);
+		}
+
+		DesignSpaceExplorer explorer = new DesignSpaceExplorer(
+				Integer.parseInt(parameters.get("meshWidth")), Integer.parseInt(parameters.get("meshHeight")),
+				Double.parseDouble(parameters.get("period")), Double.parseDouble(parameters.get("timeResolution")),
+				Double.parseDouble(parameters.get("stopTime")));
+		List<TaskSet> candidates = explorer.generate(TaskSet.load(args[0]),
+				Integer.parseInt(parameters.get("candidates")), Long.parseLong(parameters.get("seed")));
+		int threads = Integer.parseInt(parameters.get("threads"));
+		explorer.setPruning(Boolean.parseBoolean(parameters.get("prune")));
+
+		long start = System.nanoTime();
+		List<Candidate> ranking = explorer.explore(candidates, threads);
+		double wall = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(candidates.size() + " candidates evaluated on " + threads + " threads in " +
+						   String.format("%.3f", wall) + " s, " + explorer.pruned() + " pruned by the analysis");
+		System.out.println("rank\tcandidate\tworst\ttotal\tmapping (task:x,y/priority)");
+		int top = Integer.parseInt(parameters.get("top"));
+		for (int i = 0; i < ranking.size(); i++) {
+			Candidate candidate = ranking.get(i);
+			// The given task set is always shown
+			if (i >= top && candidate.index != 0)
+				continue;
+			StringBuilder mapping = new StringBuilder();
+			for (int j = 0; j < candidate.tasks.size(); j++) {
+				TaskSet.Task task = candidate.tasks.get(j);
+				mapping.append(' ').append(task.id).append(':').append(task.srcX).append(',')
+					   .append(task.srcY).append('/').append(task.priority);
+			}
+			System.out.println((i + 1) + "\t" + candidate.index + "\t" +
+							   String.format("%.4f\t%.4f", candidate.worst, candidate.total) + "\t" + mapping);
+		}
+	}
+}
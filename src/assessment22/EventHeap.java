@@ -0,0 +1,142 @@
+package lsi.noc.assessment22;
+
+import java.util.Arrays;
+
+/**
+ * EventHeap is a binary min-heap of items keyed by doubles, such as
+ * times or progress credits. Keys are kept in a primitive array, so that
+ * pushing and popping items does not allocate anything once the heap has
+ * grown to its working size. Items with equal keys are popped in an
+ * unspecified order.
+*/
+
+public class EventHeap<E> {
+
+	protected double[] keys;
+	protected Object[] items;
+	protected int size;
+
+	public EventHeap() {
+		keys = new double[16];
+		items = new Object[16];
+		size = 0;
+	}
+
+	/**
+	 * Constructor copies the given heap, keeping its layout, so that the copy
+	 * pops entries with equal keys in the same order.
+	 * @param heap
+	 */
+	public EventHeap(EventHeap<E> heap) {
+		keys = Arrays.copyOf(heap.keys, Math.max(heap.size, 16));
+		items = Arrays.copyOf(heap.items, Math.max(heap.size, 16));
+		size = heap.size;
+	}
+
+	/**
+	 * push() adds an item with the given key.
+	 * @param key
+	 * @param item
+	 */
+	public void push(double key, E item) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			items = Arrays.copyOf(items, size * 2);
+		}
+		// Sift the new item up from the bottom of the heap
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (keys[parent] <= key)
+				break;
+			keys[i] = keys[parent];
+			items[i] = items[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		items[i] = item;
+	}
+
+	/**
+	 * peekKey() returns the smallest key.
+	 * @return the smallest key or positive infinity if the heap is empty
+	 */
+	public double peekKey() {
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+	}
+
+	/**
+	 * peek() returns the item with the smallest key.
+	 * @return the item or null if the heap is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		return size == 0 ? null : (E)items[0];
+	}
+
+	/**
+	 * pop() removes the item with the smallest key.
+	 * @return the item or null if the heap is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E pop() {
+		if (size == 0)
+			return null;
+		E top = (E)items[0];
+		size--;
+		double key = keys[size];
+		Object item = items[size];
+		items[size] = null;
+
+		// Sift the last item down from the top of the heap
+		int i = 0;
+		int child;
+		while ((child = 2 * i + 1) < size) {
+			if (child + 1 < size && keys[child + 1] < keys[child])
+				child++;
+			if (key <= keys[child])
+				break;
+			keys[i] = keys[child];
+			items[i] = items[child];
+			i = child;
+		}
+		if (size > 0) {
+			keys[i] = key;
+			items[i] = item;
+		}
+		return top;
+	}
+
+	/**
+	 * key() returns the key of the entry at the given position, for inspecting
+	 * the contents of the heap. Entries are not kept in the order of their keys.
+	 * @param index position between 0 and size() - 1
+	 * @return key
+	 */
+	public double key(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * item() returns the item of the entry at the given position.
+	 * @param index position between 0 and size() - 1
+	 * @return item
+	 */
+	@SuppressWarnings("unchecked")
+	public E item(int index) {
+		return (E)items[index];
+	}
+
+	public void clear() {
+		Arrays.fill(items, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -0,0 +1,286 @@
+package lsi.noc.assessment22;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * EventTrace records the flow events of NocEngine into a binary file:
+ * injection, first activation, preemption, resumption after a preemption and
+ * delivery of every flow. A record holds the model time, the flow id (its
+ * admission number), priority, lastHop and remainingPayload of the flow at the
+ * time of the event.
+ *
+ * Records are put into direct buffers on the simulation thread, and full buffers
+ * are written to the file channel by a writer thread, so that the simulation only
+ * waits for the disk when all buffers are full. An engine without a trace only
+ * checks that its trace is null.
+ *
+ * The file starts with a header of three ints - MAGIC, VERSION and RECORD_SIZE -
+ * followed by the records, all in little-endian order. Each record is the event
+ * type (byte), a padding byte, lastHop (short), flow id, priority and
+ * remainingPayload (ints) and the time (double).
+ *
+ * Usage: java lsi.noc.assessment22.EventTrace trace-file
+ * prints the records of the trace as text.
+*/
+
+public class EventTrace {
+
+	// Event types
+	public static final byte INJECT = 0;
+	public static final byte ACTIVATE = 1;
+	public static final byte PREEMPT = 2;
+	public static final byte RESUME = 3;
+	public static final byte DELIVER = 4;
+	protected static final String[] NAMES = new String[] {"inject", "activate", "preempt", "resume", "deliver"};
+
+	public static final int MAGIC = 0x4e4f4354;
+	public static final int VERSION = 1;
+	public static final int RECORD_SIZE = 24;
+	// Records per buffer and number of buffers
+	protected static final int BUFFER_RECORDS = 8192;
+	protected static final int BUFFERS = 4;
+
+	protected FileChannel channel;
+	// Buffer being filled, full buffers waiting for the writer and empty buffers
+	protected ByteBuffer current;
+	protected ArrayBlockingQueue<ByteBuffer> full, free;
+	// Marker sent to the writer thread by close()
+	protected static final ByteBuffer END = ByteBuffer.allocate(0);
+	protected Thread writer;
+	// First error of the writer thread, thrown by close()
+	protected volatile IOException failure;
+	protected long records;
+
+	/**
+	 * Constructor creates the trace file and starts the writer thread.
+	 * @param path
+	 * @throws IOException
+	 */
+	public EventTrace(String path) throws IOException {
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+								   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+		while (header.hasRemaining())
+			channel.write(header);
+
+		full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+		free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+		for (int i = 1; i < BUFFERS; i++)
+			free.add(ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+		current = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		failure = null;
+		records = 0;
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "EventTrace " + path);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * record() adds an event to the trace.
+	 * @param type INJECT, ACTIVATE, PREEMPT, RESUME or DELIVER
+	 * @param time model time of the event
+	 * @param flow id of the flow
+	 * @param priority
+	 * @param lastHop
+	 * @param remainingPayload
+	 */
+	public void record(byte type, double time, int flow, int priority, int lastHop, int remainingPayload) {
+		ByteBuffer buffer = current;
+		buffer.put(type);
+		buffer.put((byte)0);
+		buffer.putShort((short)lastHop);
+		buffer.putInt(flow);
+		buffer.putInt(priority);
+		buffer.putInt(remainingPayload);
+		buffer.putDouble(time);
+		records++;
+		if (!buffer.hasRemaining())
+			handOff();
+	}
+
+	/**
+	 * record() adds an event of an element to the trace.
+	 * @param type
+	 * @param time
+	 * @param plistElement
+	 */
+	public void record(byte type, double time, PListElement plistElement) {
+		record(type, time, plistElement.admission, plistElement.priority,
+			   plistElement.lastHop, plistElement.remainingPayload);
+	}
+
+	/**
+	 * handOff() passes the current buffer to the writer thread and takes an empty one.
+	 */
+	protected void handOff() {
+		current.flip();
+		try {
+			full.put(current);
+			current = free.take();
+		}
+		catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing the trace", exception);
+		}
+	}
+
+	/**
+	 * write() writes the full buffers until close() is called. After an error,
+	 * the buffers are only recycled, so that the simulation is not blocked.
+	 */
+	protected void write() {
+		try {
+			while (true) {
+				ByteBuffer buffer = full.take();
+				if (buffer == END)
+					break;
+				try {
+					if (failure == null)
+						while (buffer.hasRemaining())
+							channel.write(buffer);
+				}
+				catch (IOException exception) {
+					failure = exception;
+				}
+				buffer.clear();
+				free.put(buffer);
+			}
+		}
+		catch (InterruptedException exception) {
+			failure = new IOException("Trace writer interrupted");
+		}
+	}
+
+	/**
+	 * close() writes the remaining records and closes the file.
+	 * @throws IOException if any record could not be written
+	 */
+	public void close() throws IOException {
+		if (writer == null)
+			return;
+		try {
+			current.flip();
+			full.put(current);
+			full.put(END);
+			writer.join();
+		}
+		catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the trace");
+		}
+		finally {
+			writer = null;
+			channel.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * records() returns the number of events recorded so far.
+	 * @return integer number of events
+	 */
+	public long records() {
+		return records;
+	}
+
+	/**
+	 * Reader reads the records of a trace file one at a time.
+	 */
+	public static class Reader {
+		public byte type;
+		public double time;
+		public int flow, priority, lastHop, remainingPayload;
+
+		protected FileChannel channel;
+		protected ByteBuffer buffer;
+
+		/**
+		 * Constructor opens the trace file and checks its header.
+		 * @param path
+		 * @throws IOException if the file is not a trace of this version
+		 */
+		public Reader(String path) throws IOException {
+			channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+			buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.limit(0);
+			if (!fill(12) || buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+				buffer.getInt() != RECORD_SIZE) {
+				channel.close();
+				throw new IOException(path + " is not an event trace of version " + VERSION);
+			}
+		}
+
+		/**
+		 * fill() makes sure the given number of bytes is buffered.
+		 * @return boolean showing whether the bytes are there
+		 */
+		protected boolean fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return true;
+			buffer.compact();
+			while (buffer.position() < bytes)
+				if (channel.read(buffer) < 0)
+					break;
+			buffer.flip();
+			return buffer.remaining() >= bytes;
+		}
+
+		/**
+		 * next() reads the next record into the fields of the reader.
+		 * @return boolean showing whether a record has been read
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			if (!fill(RECORD_SIZE))
+				return false;
+			type = buffer.get();
+			buffer.get();
+			lastHop = buffer.getShort();
+			flow = buffer.getInt();
+			priority = buffer.getInt();
+			remainingPayload = buffer.getInt();
+			time = buffer.getDouble();
+			return true;
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.EventTrace trace-file");
+			System.exit(1);
+		}
+		Reader reader = new Reader(args[0]);
+		StringBuilder line = new StringBuilder();
+		System.out.println("time\tevent\tflow\tpriority\tlastHop\tremainingPayload");
+		try {
+			while (reader.next()) {
+				line.setLength(0);
+				line.append(String.format("%.8f", reader.time)).append('\t')
+					.append(reader.type >= 0 && reader.type < NAMES.length ? NAMES[reader.type] : "?")
+					.append('\t').append(reader.flow).append('\t').append(reader.priority)
+					.append('\t').append(reader.lastHop).append('\t').append(reader.remainingPayload);
+				System.out.println(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,1031 @@
+package lsi.noc.assessment22;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+
+/**
+ * HeadlessSimulation runs a task set on NocEngine without Ptolemy. It plays
+ * the parts of the Ptolemy model around interConnect: tasks are released
+ * periodically, each PE runs the released tasks one at a time in the order of
+ * their priority and release (as the producer does, optionally preemptively,
+ * or in the order of their release only) and sends the packet
+ * of a task when its computation finishes, and the receiving PE adds one
+ * clock period to the time of the reception (as the consumer does).
+ * Latencies of the received packets are accumulated in LatencyStatistics.
+ *
+ * Events at the same time are processed in the order the DE director
+ * would process them: tasks are released and computations finish first,
+ * then the packets sent at that time are admitted and the engine is updated
+ * once, and finally the delivered packets are received.
+ *
+ * With steady-state detection on, the simulation looks for the hyperperiod of
+ * the task set (the least common multiple of the periods) and compares the state
+ * of the PEs and the pending events at the first moment the NoC is idle in each
+ * hyperperiod. Once the state is the same as one hyperperiod earlier, the
+ * simulation repeats itself from then on, so the packets received during the latest
+ * hyperperiod are recorded again, shifted by whole hyperperiods, up to the stop time
+ * instead of being simulated. Times are multiples of the time resolution, so the
+ * shifted packets have the same times and latencies, in the same order, as in
+ * the full simulation, and so do the statistics.
+ *
+ * The state of a simulation between two runs can be written into a checkpoint,
+ * in memory or to a file, and restored into a simulation that continues exactly
+ * as the original one would. A long warm-up can thus be run once and forked into
+ * independent copies, whose tasks may be changed (priorities) or added before
+ * they continue, for what-if runs.
+ *
+ * Usage: java lsi.noc.assessment22.HeadlessSimulation task-table [name=value ...]
+ * with the parameters of the model: stopTime (0.5), period (1e-8),
+ * timeResolution (1e-8), meshWidth (4), meshHeight (4), incrementalUpdate (true),
+ * coalesceFirings (false), priorityOrder (true), preemptive (false),
+ * histogramFile (none), to which the latency histograms are saved for merging
+ * with other runs, and traceFile (none), into which the flow events of the
+ * engine are recorded as an EventTrace, countersFile (none), into which the
+ * LinkCounters of the links and routers are saved, metrics (false), which measures
+ * the simulation itself in SimulatorMetrics, steadyState (false), which turns on
+ * steady-state detection, checkpointFile (none) and checkpointTime (stopTime),
+ * which save a checkpoint at the given time, and restoreFile (none), which continues
+ * from a checkpoint instead of time 0. The mesh, scheduling and time parameters are
+ * then those of the checkpoint, and the tasks of the task table which are not in
+ * the checkpoint are added and the changed priorities are applied.
+*/
+
+public class HeadlessSimulation {
+
+	// Tag and version of checkpoints
+	protected static final int CHECKPOINT_MAGIC = 0x4e4f434b;
+	protected static final int CHECKPOINT_VERSION = 4;
+
+	// Released instance of a task, which is the payload of its packet
+	protected static class Job {
+		TaskSet.Task task;
+		double releaseTime, compFinishTime;
+		// Order of release, which breaks ties between equal priorities
+		long sequence;
+		// Computation time left to run
+		double remaining;
+	}
+
+	// Processing element with its buffer of released jobs
+	protected static class Processor {
+		int x, y, index;
+		PriorityQueue<Job> buffer;
+		// Job being computed and the time its computation finishes
+		Job running;
+		double readyTime;
+		// Boolean showing whether the PE is to be fired at the current time
+		boolean pending;
+	}
+
+	// State of the simulation at the first moment the NoC was idle in a hyperperiod
+	protected static class Snapshot {
+		long tick;
+		String state;
+	}
+
+	// Received packet, recorded again in the repetitions of its hyperperiod.
+	// Times are in multiples of the time resolution.
+	protected static class Reception {
+		long tick;
+		int task;
+		long releaseTick, compFinishTick, commStartTick;
+	}
+
+	protected static final Comparator<Processor> INDEX_ORDER = new Comparator<Processor>() {
+		public int compare(Processor first, Processor second) {
+			return Integer.compare(first.index, second.index);
+		}
+	};
+
+	protected static final Comparator<TaskSet.Task> ID_ORDER = new Comparator<TaskSet.Task>() {
+		public int compare(TaskSet.Task first, TaskSet.Task second) {
+			return Integer.compare(first.id, second.id);
+		}
+	};
+
+	// Orders of the buffered jobs, as in the producer
+	protected static final Comparator<Job> PRIORITY_ORDER = new Comparator<Job>() {
+		public int compare(Job first, Job second) {
+			if (first.task.priority != second.task.priority)
+				return first.task.priority < second.task.priority ? -1 : 1;
+			return Long.compare(first.sequence, second.sequence);
+		}
+	};
+	protected static final Comparator<Job> RELEASE_ORDER = new Comparator<Job>() {
+		public int compare(Job first, Job second) {
+			return Long.compare(first.sequence, second.sequence);
+		}
+	};
+
+	protected TaskSet tasks;
+	protected NocEngine engine;
+	// PE (x, y) has index x * meshHeight + y
+	protected Processor[] processors;
+	// Clock period, added to the reception time of each packet
+	protected double period;
+	// Resolution times are rounded to, as in the director of the model
+	protected double timeResolution;
+	protected boolean priorityOrder, preemptive;
+	// Number of jobs released so far
+	protected long releases;
+
+	// Task releases (keyed by Task) and computation completions (keyed by Processor)
+	protected EventHeap<Object> events;
+	// PEs to be fired and tasks to be released at the current time
+	protected ArrayList<Processor> pending;
+	protected ArrayList<TaskSet.Task> released;
+	protected double time;
+
+	protected LatencyStatistics statistics;
+	// Number of packets sent and received
+	protected long sent, received;
+
+	// Steady-state detection, on if detectSteadyState is set and a hyperperiod
+	// fits into the time left to simulate
+	protected boolean detectSteadyState, detecting;
+	// Hyperperiod of the task set in multiples of the time resolution
+	protected long hyperperiod;
+	// Latest snapshot, and the packets received and sent since it was taken.
+	// In the steady state, the snapshot is the one from which the simulation repeats itself.
+	protected Snapshot snapshot;
+	protected ArrayDeque<Reception> receptions;
+	protected ArrayDeque<Long> sends;
+	// Time from which the simulation repeats itself every hyperperiod, NaN until
+	// it is found, and the time up to which the repetitions have been recorded
+	protected double steadyTime;
+	protected long recordedTick;
+
+	// Measurement of the simulation itself, null if it is not measured
+	protected SimulatorMetrics metrics;
+
+	/**
+	 * Constructor prepares the simulation of the task set from time 0.
+	 * @param tasks
+	 * @param engine empty engine simulating the NoC
+	 * @param period clock period of the model
+	 */
+	public HeadlessSimulation(TaskSet tasks, NocEngine engine, double period) {
+		this.tasks = tasks;
+		this.engine = engine;
+		this.period = period;
+		timeResolution = 0;
+
+		int width = engine.meshWidth();
+		int height = engine.meshHeight();
+		processors = new Processor[width * height];
+		for (int i = 0; i < processors.length; i++) {
+			processors[i] = new Processor();
+			processors[i].x = i / height;
+			processors[i].y = i % height;
+			processors[i].index = i;
+		}
+		setScheduling(true, false);
+
+		events = new EventHeap<Object>();
+		for (int i = 0; i < tasks.size(); i++) {
+			TaskSet.Task task = tasks.get(i);
+			if (task.id < 0)
+				throw new IllegalArgumentException("Task id " + task.id + " is negative");
+			if (task.srcX < 0 || task.srcX >= width || task.srcY < 0 || task.srcY >= height ||
+				task.dstX < 0 || task.dstX >= width || task.dstY < 0 || task.dstY >= height)
+				throw new IllegalArgumentException("Task " + task.id + " is mapped outside of the mesh");
+			events.push(task.offset, task);
+		}
+		pending = new ArrayList<Processor>();
+		released = new ArrayList<TaskSet.Task>();
+		time = 0;
+
+		statistics = new LatencyStatistics(tasks.taskCount());
+		sent = 0;
+		releases = 0;
+		received = 0;
+
+		detectSteadyState = false;
+		detecting = false;
+		hyperperiod = 0;
+		snapshot = null;
+		receptions = new ArrayDeque<Reception>();
+		sends = new ArrayDeque<Long>();
+		steadyTime = Double.NaN;
+		recordedTick = 0;
+		metrics = null;
+	}
+
+	/**
+	 * setTimeResolution() makes the simulation and the engine round times
+	 * to multiples of the given resolution. It has to be called before run().
+	 * @param resolution positive resolution, or 0 to disable rounding
+	 */
+	public void setTimeResolution(double resolution) {
+		engine.setTimeResolution(resolution);
+		timeResolution = resolution;
+	}
+
+	/**
+	 * setMetrics() makes the simulation measure its engine updates in the given
+	 * metrics, as interConnect does for its fires. Metrics are not part of a checkpoint.
+	 * @param metrics metrics or null to stop measuring
+	 */
+	public void setMetrics(SimulatorMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * setScheduling() sets the order in which the PEs run their jobs.
+	 * It has to be called before run().
+	 * @param priorityOrder boolean showing whether jobs run by priority, rather than by release only
+	 * @param preemptive boolean showing whether a released job preempts a running job of lower priority
+	 */
+	public void setScheduling(boolean priorityOrder, boolean preemptive) {
+		for (Processor processor : processors)
+			processor.buffer = new PriorityQueue<Job>(16, priorityOrder ? PRIORITY_ORDER : RELEASE_ORDER);
+		this.priorityOrder = priorityOrder;
+		this.preemptive = preemptive;
+	}
+
+	/**
+	 * keepHistograms() sets whether latencies are counted in histograms,
+	 * which they are by default. It has to be called before run().
+	 * @param keep
+	 */
+	public void keepHistograms(boolean keep) {
+		statistics = new LatencyStatistics(tasks.taskCount(), keep);
+	}
+
+	/**
+	 * detectSteadyState() sets whether the simulation stops simulating once it
+	 * repeats itself every hyperperiod. It needs a positive time resolution,
+	 * which the task periods are multiples of, and has to be called before run().
+	 * @param detect
+	 */
+	public void detectSteadyState(boolean detect) {
+		detectSteadyState = detect;
+	}
+
+	/**
+	 * hyperperiod() returns the least common multiple of the task periods.
+	 * @param tasks
+	 * @param resolution time resolution the periods are multiples of
+	 * @return hyperperiod in multiples of the resolution, or 0 if a period is not
+	 * a multiple of the resolution or the hyperperiod does not fit in a long
+	 */
+	public static long hyperperiod(TaskSet tasks, double resolution) {
+		long hyperperiod = 1;
+		for (int i = 0; i < tasks.size(); i++) {
+			double ratio = tasks.get(i).period / resolution;
+			long period = Math.round(ratio);
+			if (period <= 0 || Math.abs(ratio - period) > 1e-6 * Math.max(1, ratio))
+				return 0;
+			long a = hyperperiod, b = period;
+			while (b != 0) {
+				long remainder = a % b;
+				a = b;
+				b = remainder;
+			}
+			try {
+				hyperperiod = Math.multiplyExact(hyperperiod / a, period);
+			}
+			catch (ArithmeticException e) {
+				return 0;
+			}
+		}
+		return hyperperiod;
+	}
+
+	/**
+	 * run() processes all events up to and including the stop time.
+	 * It may be called again with a later stop time to continue the simulation.
+	 * Once a steady state has been found, only the repetitions of the received
+	 * packets are recorded.
+	 * @param stopTime
+	 */
+	public void run(double stopTime) {
+		if (!Double.isNaN(steadyTime)) {
+			recordRepetitions(stopTime);
+			return;
+		}
+
+		detecting = false;
+		if (detectSteadyState && timeResolution > 0) {
+			hyperperiod = hyperperiod(tasks, timeResolution);
+			detecting = hyperperiod > 0 && hyperperiod * timeResolution < stopTime - time;
+		}
+		if (!detecting) {
+			snapshot = null;
+			receptions.clear();
+			sends.clear();
+		}
+
+		while (true) {
+			double next = Math.min(events.peekKey(), engine.nextWakeup());
+			if (next > stopTime || next == Double.POSITIVE_INFINITY)
+				break;
+			step(next);
+			if (detecting && engine.inFlight() == 0 && engine.nextWakeup() == Double.POSITIVE_INFINITY &&
+				repeats()) {
+				recordRepetitions(stopTime);
+				break;
+			}
+		}
+		detecting = false;
+	}
+
+	/**
+	 * repeats() takes a snapshot of the state at the first moment the NoC is idle
+	 * in each hyperperiod and compares it with the snapshot of the previous hyperperiod.
+	 * If the simulation repeats itself from some time on, these moments are one
+	 * hyperperiod apart and their states are the same.
+	 * @return boolean showing whether the state is the same as one hyperperiod earlier
+	 */
+	protected boolean repeats() {
+		long tick = ticks(time);
+		if (snapshot != null && tick / hyperperiod == snapshot.tick / hyperperiod)
+			return false;
+
+		String state = state(tick);
+		if (snapshot != null && tick - snapshot.tick == hyperperiod && state.equals(snapshot.state)) {
+			steadyTime = snapshot.tick * timeResolution;
+			recordedTick = tick;
+			return true;
+		}
+		snapshot = new Snapshot();
+		snapshot.tick = tick;
+		snapshot.state = state;
+		receptions.clear();
+		sends.clear();
+		return false;
+	}
+
+	/**
+	 * state() describes the state of the PEs and the pending events
+	 * relative to the given time. The NoC must be idle.
+	 * @param tick time in multiples of the time resolution
+	 * @return description of the state
+	 */
+	protected String state(long tick) {
+		StringBuilder state = new StringBuilder();
+
+		// Pending events in the order of their times and items. The order of the events
+		// at the same time does not matter, as step() puts them in the order of the ids.
+		String[] pendingEvents = new String[events.size()];
+		for (int i = 0; i < events.size(); i++) {
+			Object event = events.item(i);
+			pendingEvents[i] = (ticks(events.key(i)) - tick) + ":" +
+							   (event instanceof TaskSet.Task ? "t" + ((TaskSet.Task)event).id :
+															   "p" + ((Processor)event).index);
+		}
+		Arrays.sort(pendingEvents);
+		for (String event : pendingEvents)
+			state.append(event).append(' ');
+
+		for (Processor processor : processors) {
+			state.append('|');
+			if (processor.running != null) {
+				state.append(ticks(processor.readyTime) - tick).append(' ');
+				append(state, processor.running, tick);
+			}
+			// Buffered jobs in the order they will run in
+			Job[] jobs = processor.buffer.toArray(new Job[processor.buffer.size()]);
+			Arrays.sort(jobs, processor.buffer.comparator());
+			for (Job job : jobs)
+				append(state, job, tick);
+		}
+		return state.toString();
+	}
+
+	protected void append(StringBuilder state, Job job, long tick) {
+		state.append(job.task.id).append(',').append(ticks(job.releaseTime) - tick)
+			 .append(',').append(ticks(job.remaining)).append(' ');
+	}
+
+	/**
+	 * recordRepetitions() records the repetitions of the packets received and
+	 * sent during the hyperperiod from the steady state up to and including the stop time.
+	 * @param stopTime
+	 */
+	protected void recordRepetitions(double stopTime) {
+		long stopTick = (long)Math.floor(stopTime / timeResolution + 1e-6);
+		if (stopTick <= recordedTick)
+			return;
+
+		// Repetition k of the hyperperiod is in (snapshot + k * hyperperiod, snapshot + (k + 1) * hyperperiod]
+		for (long shift = (recordedTick - snapshot.tick) / hyperperiod * hyperperiod;
+			 snapshot.tick + shift < stopTick; shift += hyperperiod) {
+			for (Reception reception : receptions) {
+				long tick = reception.tick + shift;
+				if (tick <= recordedTick)
+					continue;
+				if (tick > stopTick)
+					break;
+				statistics.add(reception.task, (reception.releaseTick + shift) * timeResolution,
+							   (reception.compFinishTick + shift) * timeResolution,
+							   (reception.commStartTick + shift) * timeResolution,
+							   tick * timeResolution + period);
+				received++;
+			}
+		}
+		for (long tick : sends)
+			sent += (stopTick - tick) / hyperperiod - (recordedTick - tick) / hyperperiod;
+		recordedTick = stopTick;
+	}
+
+	protected long ticks(double value) {
+		return Math.round(value / timeResolution);
+	}
+
+	/**
+	 * step() processes all events at the given time.
+	 * @param now
+	 */
+	protected void step(double now) {
+		boolean admitted = false;
+		time = now;
+
+		while (events.peekKey() <= now) {
+			Object event = events.pop();
+			if (event instanceof TaskSet.Task)
+				released.add((TaskSet.Task)event);
+			else
+				schedule((Processor)event);
+		}
+		// Tasks released at the same time are released in the order of their ids
+		if (released.size() > 1)
+			Collections.sort(released, ID_ORDER);
+		for (int i = 0; i < released.size(); i++)
+			release(released.get(i));
+		released.clear();
+
+		if (metrics != null)
+			metrics.beginFire();
+		if (pending.size() > 1)
+			Collections.sort(pending, INDEX_ORDER);
+		for (int i = 0; i < pending.size(); i++)
+			admitted |= fire(pending.get(i));
+		pending.clear();
+
+		// The engine is only updated when interConnect would be fired
+		if (admitted || engine.nextWakeup() <= now) {
+			if (metrics != null)
+				metrics.endAdmission();
+			engine.update(now);
+			if (metrics != null)
+				metrics.endFire(engine, now, engine.delivered().size());
+			ArrayList<PListElement> delivered = engine.delivered();
+			for (int i = 0; i < delivered.size(); i++)
+				receive(delivered.get(i));
+		}
+	}
+
+	/**
+	 * release() buffers a new job of the task on its PE
+	 * and schedules the next release.
+	 * @param task
+	 */
+	protected void release(TaskSet.Task task) {
+		Job job = new Job();
+		job.task = task;
+		job.releaseTime = time;
+		job.sequence = releases++;
+		job.remaining = task.compTime;
+		Processor processor = processors[task.srcX * engine.meshHeight() + task.srcY];
+		processor.buffer.add(job);
+		schedule(processor);
+
+		events.push(quantize(time + task.period), task);
+	}
+
+	protected void schedule(Processor processor) {
+		if (!processor.pending) {
+			processor.pending = true;
+			pending.add(processor);
+		}
+	}
+
+	/**
+	 * fire() sends the packet of the job whose computation has finished,
+	 * preempts the running job if preemptive scheduling is on and a job of higher
+	 * priority is buffered, and starts computing the next buffered job if the PE is idle.
+	 * @param processor
+	 * @return boolean showing whether a packet has been sent
+	 */
+	protected boolean fire(Processor processor) {
+		boolean admitted = false;
+		processor.pending = false;
+
+		if (processor.running != null && time >= processor.readyTime) {
+			Job job = processor.running;
+			processor.running = null;
+			job.compFinishTime = time;
+			PListElement plistElement = engine.admit(processor.x, processor.y, job.task.dstX, job.task.dstY,
+													 job.task.priority, job.task.size, time, job);
+			if (metrics != null)
+				metrics.admitted(plistElement);
+			sent++;
+			if (detecting)
+				sends.addLast(ticks(time));
+			admitted = true;
+		}
+
+		if (preemptive && processor.running != null && !processor.buffer.isEmpty() &&
+			processor.buffer.peek().task.priority < processor.running.task.priority) {
+			// The completion event of the preempted job finds it not ready and is ignored
+			processor.running.remaining = processor.readyTime - time;
+			processor.buffer.add(processor.running);
+			processor.running = null;
+		}
+
+		if (processor.running == null && !processor.buffer.isEmpty()) {
+			processor.running = processor.buffer.poll();
+			processor.readyTime = quantize(time + processor.running.remaining);
+			events.push(processor.readyTime, processor);
+		}
+		return admitted;
+	}
+
+	/**
+	 * receive() records the latencies of a delivered packet.
+	 * @param plistElement
+	 */
+	protected void receive(PListElement plistElement) {
+		Job job = (Job)plistElement.packet;
+		// Reception ends at the end of the clock cycle
+		statistics.add(job.task.id, job.releaseTime, job.compFinishTime,
+					   plistElement.commStartTime, time + period);
+		received++;
+		if (detecting) {
+			Reception reception = new Reception();
+			reception.tick = ticks(time);
+			reception.task = job.task.id;
+			reception.releaseTick = ticks(job.releaseTime);
+			reception.compFinishTick = ticks(job.compFinishTime);
+			reception.commStartTick = ticks(plistElement.commStartTime);
+			receptions.addLast(reception);
+		}
+	}
+
+	protected double quantize(double value) {
+		if (timeResolution == 0)
+			return value;
+		return Math.rint(value / timeResolution) * timeResolution;
+	}
+
+	public LatencyStatistics statistics() {
+		return statistics;
+	}
+
+	public NocEngine engine() {
+		return engine;
+	}
+
+	/**
+	 * time() returns the time of the latest processed events.
+	 * @return time
+	 */
+	public double time() {
+		return time;
+	}
+
+	/**
+	 * steadyStateTime() returns the time from which the simulation repeats
+	 * itself every hyperperiod.
+	 * @return time or NaN if no steady state has been found
+	 */
+	public double steadyStateTime() {
+		return steadyTime;
+	}
+
+	/**
+	 * steadyStatePeriod() returns the hyperperiod used by steady-state detection.
+	 * @return time or 0 if it has not been used
+	 */
+	public double steadyStatePeriod() {
+		return hyperperiod * timeResolution;
+	}
+
+	/**
+	 * changePriority() changes the priority of a task. Buffered jobs of the task
+	 * run with the new priority, while its packets in transmission keep the old one.
+	 * @param id id of the task
+	 * @param priority
+	 */
+	public void changePriority(int id, int priority) {
+		for (int i = 0; i < tasks.size(); i++)
+			if (tasks.get(i).id == id)
+				tasks.get(i).priority = priority;
+		// The buffers are rebuilt, as their jobs may be out of order now
+		for (Processor processor : processors) {
+			PriorityQueue<Job> buffer = new PriorityQueue<Job>(16, processor.buffer.comparator());
+			buffer.addAll(processor.buffer);
+			processor.buffer = buffer;
+		}
+	}
+
+	/**
+	 * addTask() adds a task to the running simulation. The task is first released
+	 * at its offset, or at the first of its periodic releases after the current time.
+	 * @param task
+	 */
+	public void addTask(TaskSet.Task task) {
+		int width = engine.meshWidth();
+		int height = engine.meshHeight();
+		if (task.id < 0)
+			throw new IllegalArgumentException("Task id " + task.id + " is negative");
+		if (task.srcX < 0 || task.srcX >= width || task.srcY < 0 || task.srcY >= height ||
+			task.dstX < 0 || task.dstX >= width || task.dstY < 0 || task.dstY >= height)
+			throw new IllegalArgumentException("Task " + task.id + " is mapped outside of the mesh");
+
+		double release = task.offset;
+		if (release <= time)
+			release += (Math.floor((time - task.offset) / task.period) + 1) * task.period;
+		tasks.add(task);
+		statistics.setTaskCount(tasks.taskCount());
+		events.push(quantize(release), task);
+	}
+
+	/**
+	 * applyVariant() turns the task set of the simulation into the given variant,
+	 * which may change the priorities of the tasks and add tasks.
+	 * @param variant
+	 * @throws IllegalArgumentException if the variant changes anything else or removes a task
+	 */
+	public void applyVariant(TaskSet variant) {
+		HashMap<Integer, TaskSet.Task> current = new HashMap<Integer, TaskSet.Task>();
+		for (int i = 0; i < tasks.size(); i++)
+			current.put(tasks.get(i).id, tasks.get(i));
+		for (int i = 0; i < variant.size(); i++)
+			if (current.containsKey(variant.get(i).id)) {
+				TaskSet.Task task = current.remove(variant.get(i).id);
+				TaskSet.Task changed = variant.get(i);
+				if (changed.srcX != task.srcX || changed.srcY != task.srcY || changed.dstX != task.dstX ||
+					changed.dstY != task.dstY || changed.size != task.size || changed.period != task.period ||
+					changed.compTime != task.compTime || changed.offset != task.offset)
+					throw new IllegalArgumentException("Task " + task.id + " differs in more than its priority");
+			}
+		if (!current.isEmpty())
+			throw new IllegalArgumentException("Tasks " + current.keySet() + " are missing from the variant");
+
+		for (int i = 0; i < variant.size(); i++) {
+			TaskSet.Task changed = variant.get(i);
+			TaskSet.Task task = null;
+			for (int j = 0; j < tasks.size() && task == null; j++)
+				if (tasks.get(j).id == changed.id)
+					task = tasks.get(j);
+			if (task == null)
+				addTask(changed.copy());
+			else if (task.priority != changed.priority)
+				changePriority(task.id, changed.priority);
+		}
+	}
+
+	/**
+	 * write() writes the state of the simulation into a checkpoint: the task set,
+	 * the engine with the packets in transmission, the pending releases and
+	 * completions, the jobs of the PEs and the statistics. Steady-state detection
+	 * starts over from the checkpoint.
+	 * @param output
+	 * @throws IOException
+	 * @throws IllegalStateException if a steady state has been found, after which
+	 * the statistics run ahead of the state
+	 */
+	public void write(DataOutput output) throws IOException {
+		if (!Double.isNaN(steadyTime))
+			throw new IllegalStateException("A simulation in the steady state cannot be checkpointed");
+
+		// Tasks are referenced by their positions in the task set
+		final IdentityHashMap<TaskSet.Task, Integer> positions = new IdentityHashMap<TaskSet.Task, Integer>();
+		for (int i = 0; i < tasks.size(); i++)
+			positions.put(tasks.get(i), i);
+
+		output.writeInt(CHECKPOINT_MAGIC);
+		output.writeInt(CHECKPOINT_VERSION);
+		tasks.write(output);
+		output.writeDouble(period);
+		output.writeDouble(timeResolution);
+		output.writeBoolean(priorityOrder);
+		output.writeBoolean(preemptive);
+		output.writeBoolean(detectSteadyState);
+		output.writeLong(releases);
+		output.writeDouble(time);
+		output.writeLong(sent);
+		output.writeLong(received);
+
+		engine.write(output, new NocEngine.PacketWriter() {
+			public void write(DataOutput output, Object packet) throws IOException {
+				writeJob(output, (Job)packet, positions);
+			}
+		});
+		// Events in the layout of the heap, processors as -1 - index
+		output.writeInt(events.size());
+		for (int i = 0; i < events.size(); i++) {
+			Object event = events.item(i);
+			output.writeDouble(events.key(i));
+			output.writeInt(event instanceof TaskSet.Task ? positions.get(event) : -1 - ((Processor)event).index);
+		}
+		for (Processor processor : processors) {
+			writeJob(output, processor.running, positions);
+			output.writeDouble(processor.readyTime);
+			output.writeInt(processor.buffer.size());
+			for (Job job : processor.buffer)
+				writeJob(output, job, positions);
+		}
+		statistics.write(output);
+	}
+
+	protected static void writeJob(DataOutput output, Job job, IdentityHashMap<TaskSet.Task, Integer> positions)
+	throws IOException {
+		if (job == null) {
+			output.writeInt(-1);
+			return;
+		}
+		output.writeInt(positions.get(job.task));
+		output.writeDouble(job.releaseTime);
+		output.writeDouble(job.compFinishTime);
+		output.writeLong(job.sequence);
+		output.writeDouble(job.remaining);
+	}
+
+	protected static Job readJob(DataInput input, TaskSet tasks) throws IOException {
+		int position = input.readInt();
+		if (position < 0)
+			return null;
+		if (position >= tasks.size())
+			throw new IOException("Checkpoint refers to task " + position + " of " + tasks.size());
+		Job job = new Job();
+		job.task = tasks.get(position);
+		job.releaseTime = input.readDouble();
+		job.compFinishTime = input.readDouble();
+		job.sequence = input.readLong();
+		job.remaining = input.readDouble();
+		return job;
+	}
+
+	/**
+	 * read() restores a simulation from a checkpoint written by write().
+	 * @param input
+	 * @return simulation
+	 * @throws IOException if the checkpoint cannot be read or is not of this version
+	 */
+	public static HeadlessSimulation read(DataInput input) throws IOException {
+		if (input.readInt() != CHECKPOINT_MAGIC || input.readInt() != CHECKPOINT_VERSION)
+			throw new IOException("Not a checkpoint of version " + CHECKPOINT_VERSION);
+		final TaskSet tasks = TaskSet.read(input);
+		double period = input.readDouble();
+		double timeResolution = input.readDouble();
+		boolean priorityOrder = input.readBoolean();
+		boolean preemptive = input.readBoolean();
+		boolean detect = input.readBoolean();
+		long releases = input.readLong();
+		double time = input.readDouble();
+		long sent = input.readLong();
+		long received = input.readLong();
+
+		NocEngine engine = NocEngine.read(input, new NocEngine.PacketReader() {
+			public Object read(DataInput input) throws IOException {
+				return readJob(input, tasks);
+			}
+		});
+		HeadlessSimulation simulation = new HeadlessSimulation(tasks, engine, period);
+		simulation.setTimeResolution(timeResolution);
+		simulation.setScheduling(priorityOrder, preemptive);
+		simulation.detectSteadyState(detect);
+		simulation.releases = releases;
+		simulation.time = time;
+		simulation.sent = sent;
+		simulation.received = received;
+
+		// Pushing the events in the order of the heap array rebuilds the same layout
+		simulation.events.clear();
+		int count = input.readInt();
+		for (int i = 0; i < count; i++) {
+			double key = input.readDouble();
+			int item = input.readInt();
+			if (item >= tasks.size() || -1 - item >= simulation.processors.length)
+				throw new IOException("Checkpoint refers to event item " + item);
+			simulation.events.push(key, item >= 0 ? tasks.get(item) : simulation.processors[-1 - item]);
+		}
+		for (Processor processor : simulation.processors) {
+			processor.running = readJob(input, tasks);
+			processor.readyTime = input.readDouble();
+			count = input.readInt();
+			for (int i = 0; i < count; i++)
+				processor.buffer.add(readJob(input, tasks));
+		}
+		simulation.statistics = LatencyStatistics.read(input);
+		return simulation;
+	}
+
+	/**
+	 * checkpoint() writes the state of the simulation into memory.
+	 * @return checkpoint
+	 */
+	public byte[] checkpoint() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(new DataOutputStream(bytes));
+		}
+		catch (IOException e) {
+			// Streams in memory do not fail
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * restore() restores a simulation from a checkpoint in memory.
+	 * Each call gives an independent simulation.
+	 * @param checkpoint
+	 * @return simulation
+	 * @throws IOException if the checkpoint is malformed
+	 */
+	public static HeadlessSimulation restore(byte[] checkpoint) throws IOException {
+		return read(new DataInputStream(new ByteArrayInputStream(checkpoint)));
+	}
+
+	/**
+	 * fork() returns an independent copy of the simulation, which continues
+	 * exactly as this one would. The copy records no trace.
+	 * @return simulation
+	 */
+	public HeadlessSimulation fork() {
+		try {
+			return restore(checkpoint());
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * save() writes a checkpoint to a file.
+	 * @param path
+	 * @throws IOException
+	 */
+	public void save(String path) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			write(output);
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * load() restores a simulation from a checkpoint file written by save().
+	 * @param path
+	 * @return simulation
+	 * @throws IOException
+	 */
+	public static HeadlessSimulation load(String path) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			return read(input);
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	public long sent() {
+		return sent;
+	}
+
+	public long received() {
+		return received;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.HeadlessSimulation task-table [name=value ...]");
+			System.exit(1);
+		}
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		parameters.put("stopTime", "0.5");
+		parameters.put("period", "1e-8");
+		parameters.put("timeResolution", "1e-8");
+		parameters.put("meshWidth", "4");
+		parameters.put("meshHeight", "4");
+		parameters.put("incrementalUpdate", "true");
+		parameters.put("coalesceFirings", "false");
+		parameters.put("priorityOrder", "true");
+		parameters.put("preemptive", "false");
+		parameters.put("histogramFile", "");
+		parameters.put("traceFile", "");
+		parameters.put("countersFile", "");
+		parameters.put("metrics", "false");
+		parameters.put("steadyState", "false");
+		parameters.put("checkpointFile", "");
+		parameters.put("checkpointTime", "");
+		parameters.put("restoreFile", "");
+		for (int i = 1; i < args.length; i++) {
+			String[] pair = args[i].split("=", 2);
+			if (pair.length != 2 || !parameters.containsKey(pair[0]))
+				throw new IllegalArgumentException("Unknown parameter " + args[i]);
+			parameters.put(pair[0], pair[1]);
+		}
+
+		TaskSet tasks = TaskSet.load(args[0]);
+		HeadlessSimulation simulation;
+		NocEngine engine;
+		if (!parameters.get("restoreFile").isEmpty()) {
+			simulation = load(parameters.get("restoreFile"));
+			simulation.applyVariant(tasks);
+			engine = simulation.engine();
+		}
+		else {
+			double period = Double.parseDouble(parameters.get("period"));
+			// Arbitration takes 3 cycles per router, as in interConnect
+			engine = new NocEngine(Integer.parseInt(parameters.get("meshWidth")),
+								   Integer.parseInt(parameters.get("meshHeight")), period * 3,
+								   Boolean.parseBoolean(parameters.get("incrementalUpdate")),
+								   Boolean.parseBoolean(parameters.get("coalesceFirings")));
+			simulation = new HeadlessSimulation(tasks, engine, period);
+			simulation.setTimeResolution(Double.parseDouble(parameters.get("timeResolution")));
+			simulation.setScheduling(Boolean.parseBoolean(parameters.get("priorityOrder")),
+									 Boolean.parseBoolean(parameters.get("preemptive")));
+		}
+		simulation.detectSteadyState(Boolean.parseBoolean(parameters.get("steadyState")));
+		EventTrace trace = null;
+		if (!parameters.get("traceFile").isEmpty()) {
+			trace = new EventTrace(parameters.get("traceFile"));
+			engine.setTrace(trace);
+		}
+		if (!parameters.get("countersFile").isEmpty())
+			engine.setCounters(new LinkCounters(engine.meshWidth(), engine.meshHeight()));
+		SimulatorMetrics metrics = null;
+		if (Boolean.parseBoolean(parameters.get("metrics"))) {
+			metrics = new SimulatorMetrics("HeadlessSimulation");
+			metrics.start(simulation.time());
+			metrics.register();
+			simulation.setMetrics(metrics);
+		}
+
+		long start = System.nanoTime();
+		double stopTime = Double.parseDouble(parameters.get("stopTime"));
+		if (!parameters.get("checkpointFile").isEmpty()) {
+			String checkpointTime = parameters.get("checkpointTime");
+			simulation.run(checkpointTime.isEmpty() ? stopTime : Double.parseDouble(checkpointTime));
+			simulation.save(parameters.get("checkpointFile"));
+		}
+		simulation.run(stopTime);
+		if (trace != null)
+			trace.close();
+		double wall = (System.nanoTime() - start) / 1e9;
+
+		LatencyStatistics statistics = simulation.statistics();
+		System.out.println("id\tcount\tmin_commtime\tavg_commtime\tmax_commtime\t" +
+						   "min_totaltime\tavg_totaltime\tmax_totaltime\t" +
+						   "p50_commtime\tp99_commtime\tp999_commtime\tp50_totaltime\tp99_totaltime\tp999_totaltime");
+		for (int i = 0; i < statistics.taskCount(); i++) {
+			if (statistics.count(i) == 0)
+				continue;
+			System.out.println(i + "\t" + statistics.count(i) + "\t" +
+				String.format("%.8f\t%.8f\t%.8f\t%.8f\t%.8f\t%.8f",
+					statistics.minimum(i, LatencyStatistics.COMMUNICATION),
+					statistics.average(i, LatencyStatistics.COMMUNICATION),
+					statistics.maximum(i, LatencyStatistics.COMMUNICATION),
+					statistics.minimum(i, LatencyStatistics.END_TO_END),
+					statistics.average(i, LatencyStatistics.END_TO_END),
+					statistics.maximum(i, LatencyStatistics.END_TO_END)) + "\t" +
+				String.format("%.8f\t%.8f\t%.8f\t%.8f\t%.8f\t%.8f",
+					statistics.percentile(i, LatencyStatistics.COMMUNICATION, 50),
+					statistics.percentile(i, LatencyStatistics.COMMUNICATION, 99),
+					statistics.percentile(i, LatencyStatistics.COMMUNICATION, 99.9),
+					statistics.percentile(i, LatencyStatistics.END_TO_END, 50),
+					statistics.percentile(i, LatencyStatistics.END_TO_END, 99),
+					statistics.percentile(i, LatencyStatistics.END_TO_END, 99.9)));
+		}
+		if (!parameters.get("histogramFile").isEmpty())
+			LatencyHistogram.save(parameters.get("histogramFile"), statistics.histograms());
+		if (engine.counters() != null)
+			engine.counters().save(parameters.get("countersFile"), simulation.time());
+		System.out.println(simulation.received() + " packets received in " +
+						   String.format("%.3f", wall) + " s (" +
+						   Math.round(simulation.received() / wall) + " packets/s), " +
+						   engine.updates() + " updates");
+		if (metrics != null) {
+			System.out.println(metrics);
+			metrics.unregister();
+		}
+		if (!Double.isNaN(simulation.steadyStateTime()))
+			System.out.println("Steady state from " + String.format("%.8f", simulation.steadyStateTime()) +
+							   " s, repeated every " + String.format("%.8f", simulation.steadyStatePeriod()) + " s");
+	}
+}
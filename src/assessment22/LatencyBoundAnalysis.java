@@ -0,0 +1,247 @@
+package lsi.noc.assessment22;
+
+import java.util.HashMap;
+
+/**
+ * LatencyBoundAnalysis computes upper bounds on the communication latency
+ * of each task of a task set without simulating it. It applies the response-time
+ * analysis of priority-preemptive wormhole NoCs [1] to the flows of the tasks:
+ *
+ *   R_i = C_i + sum over j in S_D(i) of ceil((R_i + J^R_j + J^I_j) / T_j) * C_j
+ *
+ * where C_i is the latency of flow i without interference, (hops + size - 1)
+ * router latencies as in NocEngine.noLoadLatency(), T_j is the period, S_D(i)
+ * are the flows of higher or equal priority whose XY routes share a link with
+ * the route of flow i (the interference sets of interConnect), J^R_j is the
+ * release jitter of flow j and J^I_j = R_j - C_j is its indirect interference
+ * jitter. Release jitter comes from the PEs, which run their tasks one at a time
+ * and never idle while a task is buffered, whatever the order of the tasks: a packet
+ * is sent at most a busy period of its PE after the release of its task, and at
+ * least one computation time after it.
+ *
+ * Bounds include the clock period the consumer adds to the reception time,
+ * so that they can be compared with max_commtime of statistician. A flow whose
+ * bound exceeds its period, or whose PE is overloaded, gets an infinite bound.
+ *
+ * Usage: java lsi.noc.assessment22.LatencyBoundAnalysis task-table [name=value ...]
+ * with parameters stopTime (0.5), period (1e-8), timeResolution (1e-8),
+ * meshWidth (4) and meshHeight (4). The bounds are printed next to the latencies
+ * observed in HeadlessSimulation.
+ *
+ * References:
+ * [1] Zheng Shi, Alan Burns: Real-Time Communication Analysis for On-Chip Networks with Wormhole Switching.
+ *     Second ACM/IEEE International Symposium on Networks-on-Chip (NOCS 2008), pp. 161-170.
+*/
+
+public class LatencyBoundAnalysis {
+
+	protected int meshWidth, meshHeight;
+	// Clock period and time for a packet to pass a single router
+	protected double period, routerLatency;
+	protected RouteTable routes;
+
+	/**
+	 * Constructor sets up the platform of the analysis.
+	 * @param meshWidth
+	 * @param meshHeight
+	 * @param period clock period
+	 */
+	public LatencyBoundAnalysis(int meshWidth, int meshHeight, double period) {
+		this.meshWidth = meshWidth;
+		this.meshHeight = meshHeight;
+		this.period = period;
+		// Arbitration takes 3 cycles per router, as in interConnect
+		routerLatency = period * 3;
+		routes = new RouteTable(meshWidth, meshHeight);
+	}
+
+	/**
+	 * analyse() computes the communication latency bounds of the tasks.
+	 * @param tasks
+	 * @return bounds in the order of the task set
+	 */
+	public double[] analyse(TaskSet tasks) {
+		int n = tasks.size();
+		double[] basic = new double[n];
+		double[] releaseJitter = releaseJitter(tasks);
+		double[] response = new double[n];
+		boolean[][] interferes = new boolean[n][n];
+		long[][] masks = new long[n][];
+
+		for (int i = 0; i < n; i++) {
+			TaskSet.Task task = tasks.get(i);
+			if (task.srcX < 0 || task.srcX >= meshWidth || task.srcY < 0 || task.srcY >= meshHeight ||
+				task.dstX < 0 || task.dstX >= meshWidth || task.dstY < 0 || task.dstY >= meshHeight)
+				throw new IllegalArgumentException("Task " + task.id + " is mapped outside of the mesh");
+			masks[i] = routes.mask(task.srcX, task.srcY, task.dstX, task.dstY);
+			basic[i] = (hops(task) + task.size - 1) * routerLatency;
+			response[i] = basic[i];
+		}
+		// Direct interference sets - equal priorities are assumed to interfere both ways
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				interferes[i][j] = i != j && tasks.get(j).priority <= tasks.get(i).priority &&
+								   RouteTable.overlap(masks[i], masks[j]);
+
+		// Response times only grow with the jitter of the interferers, so they are
+		// recomputed until none of them changes
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < n; i++) {
+				if (response[i] == Double.POSITIVE_INFINITY)
+					continue;
+				double bound = response(i, tasks, basic, releaseJitter, response, interferes);
+				if (bound != response[i]) {
+					response[i] = bound;
+					changed = true;
+				}
+			}
+		}
+
+		double[] bounds = new double[n];
+		for (int i = 0; i < n; i++)
+			// Reception ends at the end of the clock cycle
+			bounds[i] = response[i] + period;
+		return bounds;
+	}
+
+	/**
+	 * response() iterates the response time equation of a flow to its fixed point.
+	 * @return response time or positive infinity if it exceeds the period
+	 */
+	protected double response(int i, TaskSet tasks, double[] basic, double[] releaseJitter,
+							  double[] response, boolean[][] interferes) {
+		double deadline = tasks.get(i).period;
+		double current = basic[i];
+		double previous = -1;
+
+		while (current != previous) {
+			if (current > deadline)
+				return Double.POSITIVE_INFINITY;
+			previous = current;
+			current = basic[i];
+			for (int j = 0; j < tasks.size(); j++) {
+				if (!interferes[i][j])
+					continue;
+				if (response[j] == Double.POSITIVE_INFINITY || releaseJitter[j] == Double.POSITIVE_INFINITY)
+					return Double.POSITIVE_INFINITY;
+				double jitter = releaseJitter[j] + response[j] - basic[j];
+				current += Math.ceil((previous + jitter) / tasks.get(j).period) * basic[j];
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * releaseJitter() bounds the variation of the time from the release of each
+	 * task to the start of its communication. A PE runs its tasks one at a time and
+	 * does not idle while any is buffered, so a task finishes within the longest
+	 * busy period of its PE.
+	 * @param tasks
+	 * @return jitter in the order of the task set, infinite if the PE is overloaded
+	 */
+	protected double[] releaseJitter(TaskSet tasks) {
+		int n = tasks.size();
+		double[] busyPeriod = new double[meshWidth * meshHeight];
+		double[] utilisation = new double[busyPeriod.length];
+		double[] jitter = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			TaskSet.Task task = tasks.get(i);
+			utilisation[pe(task)] += task.compTime / task.period;
+		}
+		for (int pe = 0; pe < busyPeriod.length; pe++) {
+			if (utilisation[pe] >= 1) {
+				busyPeriod[pe] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			// Longest busy period - all tasks of the PE released at once
+			double length = 0;
+			double previous = -1;
+			for (int i = 0; i < n; i++)
+				if (pe(tasks.get(i)) == pe)
+					length += tasks.get(i).compTime;
+			while (length != previous) {
+				previous = length;
+				length = 0;
+				for (int i = 0; i < n; i++) {
+					TaskSet.Task task = tasks.get(i);
+					if (pe(task) == pe)
+						length += Math.ceil(previous / task.period) * task.compTime;
+				}
+			}
+			busyPeriod[pe] = length;
+		}
+		for (int i = 0; i < n; i++)
+			jitter[i] = busyPeriod[pe(tasks.get(i))] - tasks.get(i).compTime;
+		return jitter;
+	}
+
+	protected int pe(TaskSet.Task task) {
+		return task.srcX * meshHeight + task.srcY;
+	}
+
+	protected int hops(TaskSet.Task task) {
+		return Math.abs(task.srcX - task.dstX) + Math.abs(task.srcY - task.dstY);
+	}
+
+	/**
+	 * schedulable() checks whether all flows of the task set have finite bounds.
+	 * @param tasks
+	 * @return boolean showing whether every bound is within the period of its task
+	 */
+	public boolean schedulable(TaskSet tasks) {
+		for (double bound : analyse(tasks))
+			if (bound == Double.POSITIVE_INFINITY)
+				return false;
+		return true;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.LatencyBoundAnalysis task-table [name=value ...]");
+			System.exit(1);
+		}
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		parameters.put("stopTime", "0.5");
+		parameters.put("period", "1e-8");
+		parameters.put("timeResolution", "1e-8");
+		parameters.put("meshWidth", "4");
+		parameters.put("meshHeight", "4");
+		for (int i = 1; i < args.length; i++) {
+			String[] pair = args[i].split("=", 2);
+			if (pair.length != 2 || !parameters.containsKey(pair[0]))
+				throw new IllegalArgumentException("Unknown parameter " + args[i]);
+			parameters.put(pair[0], pair[1]);
+		}
+
+		TaskSet tasks = TaskSet.load(args[0]);
+		int width = Integer.parseInt(parameters.get("meshWidth"));
+		int height = Integer.parseInt(parameters.get("meshHeight"));
+		double period = Double.parseDouble(parameters.get("period"));
+
+		long start = System.nanoTime();
+		double[] bounds = new LatencyBoundAnalysis(width, height, period).analyse(tasks);
+		double analysis = (System.nanoTime() - start) / 1e9;
+
+		NocEngine engine = new NocEngine(width, height, period * 3, true, false);
+		HeadlessSimulation simulation = new HeadlessSimulation(tasks, engine, period);
+		simulation.setTimeResolution(Double.parseDouble(parameters.get("timeResolution")));
+		start = System.nanoTime();
+		simulation.run(Double.parseDouble(parameters.get("stopTime")));
+		double wall = (System.nanoTime() - start) / 1e9;
+
+		LatencyStatistics statistics = simulation.statistics();
+		System.out.println("id\tbound\tmax_commtime\tbound/max_commtime");
+		for (int i = 0; i < tasks.size(); i++) {
+			int id = tasks.get(i).id;
+			double observed = statistics.count(id) == 0 ? Double.NaN :
+							  statistics.maximum(id, LatencyStatistics.COMMUNICATION);
+			System.out.println(id + "\t" + String.format("%.8f\t%.8f\t%.3f", bounds[i], observed,
+																	   bounds[i] / observed));
+		}
+		System.out.println("Analysis took " + String.format("%.3f", analysis * 1e3) + " ms, simulation " +
+						   String.format("%.3f", wall * 1e3) + " ms");
+	}
+}
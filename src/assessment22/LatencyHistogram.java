@@ -0,0 +1,294 @@
+package lsi.noc.assessment22;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * LatencyHistogram counts latencies in logarithmic buckets of fixed memory,
+ * from which percentiles can be read. Latencies are counted in nanoseconds.
+ * Values below 1024 ns have a bucket each, and above that every power of two is
+ * split into 512 buckets, so that a value is known within 1/512 of itself and is
+ * reported within 1/1024 of itself, i.e. to 3 significant digits. Values above
+ * 2^36 ns (about 68 s) are counted as 2^36 ns. Recording a value does not allocate
+ * anything. Percentiles are bounded by the exact minimum and maximum, and the
+ * lowest and highest ranks are reported as these exactly.
+ *
+ * All histograms have the same buckets, so histograms of separate runs can be
+ * merged. A table of histograms, such as the ones of statistician, can be saved
+ * to a file and loaded back.
+ *
+ * Usage: java lsi.noc.assessment22.LatencyHistogram file ...
+ * merges the tables of histograms saved in the files and prints the percentiles
+ * of the merged histograms.
+*/
+
+public class LatencyHistogram {
+
+	// Duration of a count, in seconds
+	public static final double UNIT = 1e-9;
+	// Number of bits kept of each value, and the number of bits of the largest value
+	protected static final int SUB_BITS = 10;
+	protected static final int MAX_BITS = 36;
+	protected static final int SUB_COUNT = 1 << SUB_BITS;
+	protected static final int HALF_COUNT = SUB_COUNT / 2;
+	protected static final int BUCKETS = SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF_COUNT;
+	// Tag of the files written by save()
+	protected static final int MAGIC = 0x4c48;
+
+	protected long[] counts;
+	protected long count;
+	// Exact extremes, which bound the reported percentiles
+	protected double minimum, maximum;
+
+	public LatencyHistogram() {
+		counts = new long[BUCKETS];
+		clear();
+	}
+
+	/**
+	 * record() counts a latency.
+	 * @param value latency in seconds
+	 */
+	public void record(double value) {
+		if (!(value >= 0))
+			value = 0;
+		long ticks = Math.min(Math.round(value / UNIT), (1L << MAX_BITS) - 1);
+		counts[index(ticks)]++;
+		count++;
+		if (value < minimum)
+			minimum = value;
+		if (value > maximum)
+			maximum = value;
+	}
+
+	/**
+	 * index() returns the bucket of a value.
+	 * @param ticks value in units
+	 * @return bucket index
+	 */
+	protected static int index(long ticks) {
+		if (ticks < SUB_COUNT)
+			return (int)ticks;
+		int shift = 63 - Long.numberOfLeadingZeros(ticks) - (SUB_BITS - 1);
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (int)(ticks >> shift) - HALF_COUNT;
+	}
+
+	/**
+	 * middle() returns the value in the middle of a bucket.
+	 * @param index bucket index
+	 * @return value in units
+	 */
+	protected static double middle(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+		long lowest = (long)((index - SUB_COUNT) % HALF_COUNT + HALF_COUNT) << shift;
+		return lowest + (1L << shift) / 2.0;
+	}
+
+	/**
+	 * percentile() returns the latency below or at which the given
+	 * percentage of the recorded latencies is. The value is that of the middle
+	 * of its bucket, within the range of the recorded latencies; the first
+	 * and the last of them are the minimum and the maximum.
+	 * @param percentage between 0 and 100
+	 * @return latency in seconds or NaN if nothing has been recorded
+	 */
+	public double percentile(double percentage) {
+		if (count == 0)
+			return Double.NaN;
+		long rank = Math.max(1, (long)Math.ceil(percentage / 100 * count));
+		if (rank == 1)
+			return minimum;
+		if (rank >= count)
+			return maximum;
+		long seen = 0;
+		int index = 0;
+		while (index < BUCKETS - 1) {
+			seen += counts[index];
+			if (seen >= rank)
+				break;
+			index++;
+		}
+		return Math.min(maximum, Math.max(minimum, middle(index) * UNIT));
+	}
+
+	/**
+	 * merge() adds the counts of another histogram to this one.
+	 * @param other
+	 */
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		minimum = Math.min(minimum, other.minimum);
+		maximum = Math.max(maximum, other.maximum);
+	}
+
+	public void clear() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = 0;
+		count = 0;
+		minimum = Double.POSITIVE_INFINITY;
+		maximum = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * count() returns the number of recorded latencies.
+	 * @return integer number of latencies
+	 */
+	public long count() {
+		return count;
+	}
+
+	public double minimum() {
+		return minimum;
+	}
+
+	public double maximum() {
+		return maximum;
+	}
+
+	/**
+	 * write() writes the non-empty buckets of the histogram.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			if (counts[i] != 0)
+				used++;
+		output.writeLong(count);
+		output.writeDouble(minimum);
+		output.writeDouble(maximum);
+		output.writeInt(used);
+		for (int i = 0; i < BUCKETS; i++)
+			if (counts[i] != 0) {
+				output.writeShort(i);
+				output.writeLong(counts[i]);
+			}
+	}
+
+	/**
+	 * read() reads a histogram written by write().
+	 * @param input
+	 * @return histogram
+	 * @throws IOException
+	 */
+	public static LatencyHistogram read(DataInput input) throws IOException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.count = input.readLong();
+		histogram.minimum = input.readDouble();
+		histogram.maximum = input.readDouble();
+		int used = input.readInt();
+		for (int i = 0; i < used; i++) {
+			int index = input.readShort();
+			if (index < 0 || index >= BUCKETS)
+				throw new IOException("Bucket " + index + " is out of range");
+			histogram.counts[index] = input.readLong();
+		}
+		return histogram;
+	}
+
+	/**
+	 * save() writes a table of histograms, indexed by task and latency, to a file.
+	 * @param path
+	 * @param histograms
+	 * @throws IOException
+	 */
+	public static void save(String path, LatencyHistogram[][] histograms) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(BUCKETS);
+			output.writeInt(histograms.length);
+			output.writeInt(histograms.length == 0 ? 0 : histograms[0].length);
+			for (LatencyHistogram[] row : histograms)
+				for (LatencyHistogram histogram : row)
+					histogram.write(output);
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * load() reads a table of histograms written by save().
+	 * @param path
+	 * @return histograms indexed by task and latency
+	 * @throws IOException if the file cannot be read or has a different bucket layout
+	 */
+	public static LatencyHistogram[][] load(String path) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != BUCKETS)
+				throw new IOException(path + " does not contain latency histograms of this layout");
+			LatencyHistogram[][] histograms = new LatencyHistogram[input.readInt()][input.readInt()];
+			for (LatencyHistogram[] row : histograms)
+				for (int i = 0; i < row.length; i++)
+					row[i] = read(input);
+			return histograms;
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * merge() adds a table of histograms to another one, growing it if needed.
+	 * @param target table to add to, may be null
+	 * @param source
+	 * @return the merged table
+	 */
+	public static LatencyHistogram[][] merge(LatencyHistogram[][] target, LatencyHistogram[][] source) {
+		if (target == null)
+			target = new LatencyHistogram[0][];
+		if (source.length > target.length) {
+			LatencyHistogram[][] grown = new LatencyHistogram[source.length][];
+			for (int i = 0; i < grown.length; i++) {
+				grown[i] = i < target.length ? target[i] : new LatencyHistogram[source[i].length];
+				for (int j = 0; j < grown[i].length; j++)
+					if (grown[i][j] == null)
+						grown[i][j] = new LatencyHistogram();
+			}
+			target = grown;
+		}
+		for (int i = 0; i < source.length; i++) {
+			if (source[i].length != target[i].length)
+				throw new IllegalArgumentException("Tables have different numbers of latencies");
+			for (int j = 0; j < source[i].length; j++)
+				target[i][j].merge(source[i][j]);
+		}
+		return target;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.LatencyHistogram file ...");
+			System.exit(1);
+		}
+		LatencyHistogram[][] merged = null;
+		for (String path : args)
+			merged = merge(merged, load(path));
+
+		System.out.println("id\tlatency\tcount\tmin\tp50\tp99\tp99.9\tmax");
+		for (int i = 0; i < merged.length; i++)
+			for (int j = 0; j < merged[i].length; j++) {
+				LatencyHistogram histogram = merged[i][j];
+				if (histogram.count() == 0)
+					continue;
+				System.out.println(i + "\t" + j + "\t" + histogram.count() + "\t" +
+					String.format("%.8f\t%.8f\t%.8f\t%.8f\t%.8f", histogram.minimum(),
+								  histogram.percentile(50), histogram.percentile(99),
+								  histogram.percentile(99.9), histogram.maximum()));
+			}
+	}
+}
@@ -0,0 +1,219 @@
+package lsi.noc.assessment22;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LatencyStatistics accumulates minimum, average and maximum communication
+ * and end-to-end latencies of each task, as the statistician actor does.
+ * Communication latency is the time from the start of the communication to
+ * the reception of the packet. End-to-end latency is the time from the release
+ * of the task to the reception of its packet, less the delay between the end
+ * of the computation and the start of the communication.
+ *
+ * Latencies can also be counted in a LatencyHistogram per task and latency,
+ * from which percentiles are read. The histograms take 8 KB each, so they can
+ * be left out when many simulations are kept, as in DesignSpaceExplorer.
+*/
+
+public class LatencyStatistics {
+
+	// Indices of the latencies
+	public static final int COMMUNICATION = 0;
+	public static final int END_TO_END = 1;
+
+	protected double[][] accumulator, minimum, maximum;
+	protected int[] counter;
+	// Histograms indexed by task and latency, null if they are not kept
+	protected LatencyHistogram[][] histograms;
+
+	/**
+	 * Constructor creates empty statistics with histograms.
+	 * @param taskCount number of task ids
+	 */
+	public LatencyStatistics(int taskCount) {
+		this(taskCount, true);
+	}
+
+	/**
+	 * Constructor creates empty statistics.
+	 * @param taskCount number of task ids
+	 * @param keepHistograms boolean showing whether latencies are counted in histograms
+	 */
+	public LatencyStatistics(int taskCount, boolean keepHistograms) {
+		accumulator = new double[taskCount][2];
+		minimum = new double[taskCount][2];
+		maximum = new double[taskCount][2];
+		counter = new int[taskCount];
+		for (int i = 0; i < taskCount; i++) {
+			Arrays.fill(minimum[i], Double.POSITIVE_INFINITY);
+			Arrays.fill(maximum[i], Double.NEGATIVE_INFINITY);
+		}
+		histograms = null;
+		if (keepHistograms) {
+			histograms = new LatencyHistogram[taskCount][2];
+			for (int i = 0; i < taskCount; i++)
+				for (int j = 0; j < 2; j++)
+					histograms[i][j] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * add() records a received packet.
+	 * @param task id of the task
+	 * @param releaseTime
+	 * @param compFinishTime
+	 * @param commStartTime
+	 * @param commFinishTime
+	 */
+	public void add(int task, double releaseTime, double compFinishTime,
+					double commStartTime, double commFinishTime) {
+		record(task, COMMUNICATION, commFinishTime - commStartTime);
+		record(task, END_TO_END, commFinishTime - releaseTime - (commStartTime - compFinishTime));
+		counter[task]++;
+	}
+
+	protected void record(int task, int latency, double value) {
+		if (value < minimum[task][latency])
+			minimum[task][latency] = value;
+		if (value > maximum[task][latency])
+			maximum[task][latency] = value;
+		accumulator[task][latency] += value;
+		if (histograms != null)
+			histograms[task][latency].record(value);
+	}
+
+	/**
+	 * setTaskCount() makes room for the given number of task ids.
+	 * The statistics of the existing tasks are kept.
+	 * @param taskCount number of task ids, which is not less than the current one
+	 */
+	public void setTaskCount(int taskCount) {
+		int previous = counter.length;
+		if (taskCount <= previous)
+			return;
+		accumulator = Arrays.copyOf(accumulator, taskCount);
+		minimum = Arrays.copyOf(minimum, taskCount);
+		maximum = Arrays.copyOf(maximum, taskCount);
+		counter = Arrays.copyOf(counter, taskCount);
+		if (histograms != null)
+			histograms = Arrays.copyOf(histograms, taskCount);
+		for (int i = previous; i < taskCount; i++) {
+			accumulator[i] = new double[2];
+			minimum[i] = new double[] {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+			maximum[i] = new double[] {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+			if (histograms != null)
+				histograms[i] = new LatencyHistogram[] {new LatencyHistogram(), new LatencyHistogram()};
+		}
+	}
+
+	/**
+	 * write() writes the statistics in binary form, as part of a checkpoint.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(counter.length);
+		output.writeBoolean(histograms != null);
+		for (int i = 0; i < counter.length; i++) {
+			output.writeInt(counter[i]);
+			for (int j = 0; j < 2; j++) {
+				output.writeDouble(accumulator[i][j]);
+				output.writeDouble(minimum[i][j]);
+				output.writeDouble(maximum[i][j]);
+				if (histograms != null)
+					histograms[i][j].write(output);
+			}
+		}
+	}
+
+	/**
+	 * read() reads statistics written by write().
+	 * @param input
+	 * @return statistics
+	 * @throws IOException
+	 */
+	public static LatencyStatistics read(DataInput input) throws IOException {
+		int taskCount = input.readInt();
+		LatencyStatistics statistics = new LatencyStatistics(taskCount, input.readBoolean());
+		for (int i = 0; i < taskCount; i++) {
+			statistics.counter[i] = input.readInt();
+			for (int j = 0; j < 2; j++) {
+				statistics.accumulator[i][j] = input.readDouble();
+				statistics.minimum[i][j] = input.readDouble();
+				statistics.maximum[i][j] = input.readDouble();
+				if (statistics.histograms != null)
+					statistics.histograms[i][j] = LatencyHistogram.read(input);
+			}
+		}
+		return statistics;
+	}
+
+	public int taskCount() {
+		return counter.length;
+	}
+
+	/**
+	 * count() returns the number of packets of the task received so far.
+	 * @param task
+	 * @return integer number of packets
+	 */
+	public int count(int task) {
+		return counter[task];
+	}
+
+	/**
+	 * minimum() returns the smallest latency of the task.
+	 * @param task
+	 * @param latency COMMUNICATION or END_TO_END
+	 * @return time or positive infinity if no packet has been received
+	 */
+	public double minimum(int task, int latency) {
+		return minimum[task][latency];
+	}
+
+	/**
+	 * average() returns the average latency of the task.
+	 * @param task
+	 * @param latency COMMUNICATION or END_TO_END
+	 * @return time or NaN if no packet has been received
+	 */
+	public double average(int task, int latency) {
+		return accumulator[task][latency] / counter[task];
+	}
+
+	/**
+	 * maximum() returns the largest latency of the task.
+	 * @param task
+	 * @param latency COMMUNICATION or END_TO_END
+	 * @return time or negative infinity if no packet has been received
+	 */
+	public double maximum(int task, int latency) {
+		return maximum[task][latency];
+	}
+
+	/**
+	 * percentile() returns the latency of the task below or at which
+	 * the given percentage of its latencies is.
+	 * @param task
+	 * @param latency COMMUNICATION or END_TO_END
+	 * @param percentage between 0 and 100
+	 * @return time or NaN if no packet has been received or histograms are not kept
+	 */
+	public double percentile(int task, int latency, double percentage) {
+		if (histograms == null)
+			return Double.NaN;
+		return histograms[task][latency].percentile(percentage);
+	}
+
+	/**
+	 * histograms() returns the histograms indexed by task and latency,
+	 * which can be saved with LatencyHistogram.save().
+	 * @return histograms or null if they are not kept
+	 */
+	public LatencyHistogram[][] histograms() {
+		return histograms;
+	}
+}
@@ -0,0 +1,262 @@
+package lsi.noc.assessment22;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * LinkCounters counts the use of every directed mesh link and every router
+ * by the flows of NocEngine:
+ * - busy time - time during which at least one active flow holds the link
+ *   or passes the router,
+ * - preemptions suffered - preemptions of the flows routed over the link
+ *   or through the router,
+ * - preemptions caused - preemptions which happened on the link, i.e. of a flow
+ *   sharing the link with an active flow of higher priority; a router causes
+ *   the preemptions on its output links,
+ * - peak flows - the largest number of flows, active or blocked, routed over
+ *   the link or through the router at the same time.
+ * The counters are maintained by the engine as flows are admitted, activated,
+ * preempted and delivered, so they cost nothing between these events. An engine
+ * without counters only checks that its counters are null.
+ *
+ * save() writes the counters as a tab-separated table with one row per link and
+ * per router, with the coordinates of both ends (the same ones for a router),
+ * ready to be drawn as a heatmap of the mesh.
+*/
+
+public class LinkCounters {
+
+	protected RouteTable routes;
+	protected int meshHeight;
+	// Time the counting started at
+	protected double startTime;
+
+	// Counters indexed by link number and by router number x * meshHeight + y
+	protected double[] linkBusy, routerBusy;
+	protected double[] linkBusySince, routerBusySince;
+	protected int[] linkActive, routerActive;
+	protected int[] linkFlows, routerFlows;
+	protected int[] linkPeak, routerPeak;
+	protected long[] linkSuffered, routerSuffered;
+	protected long[] linkCaused, routerCaused;
+
+	/**
+	 * Constructor creates zero counters for a mesh of the given size.
+	 * @param meshWidth number of routers along X
+	 * @param meshHeight number of routers along Y
+	 */
+	public LinkCounters(int meshWidth, int meshHeight) {
+		routes = new RouteTable(meshWidth, meshHeight);
+		this.meshHeight = meshHeight;
+		startTime = 0;
+
+		int links = routes.linkCount();
+		int routers = meshWidth * meshHeight;
+		linkBusy = new double[links];
+		linkBusySince = new double[links];
+		linkActive = new int[links];
+		linkFlows = new int[links];
+		linkPeak = new int[links];
+		linkSuffered = new long[links];
+		linkCaused = new long[links];
+		routerBusy = new double[routers];
+		routerBusySince = new double[routers];
+		routerActive = new int[routers];
+		routerFlows = new int[routers];
+		routerPeak = new int[routers];
+		routerSuffered = new long[routers];
+		routerCaused = new long[routers];
+	}
+
+	/**
+	 * start() sets the time the counting starts at, against which link
+	 * utilization is computed.
+	 * @param time
+	 */
+	public void start(double time) {
+		startTime = time;
+	}
+
+	/**
+	 * admit() counts a new flow on its links and routers.
+	 * @param plistElement
+	 */
+	public void admit(PListElement plistElement) {
+		int router = plistElement.srcX * meshHeight + plistElement.srcY;
+
+		if (++routerFlows[router] > routerPeak[router])
+			routerPeak[router] = routerFlows[router];
+		for (int link : plistElement.routeLinks) {
+			if (++linkFlows[link] > linkPeak[link])
+				linkPeak[link] = linkFlows[link];
+			router = routes.target(link);
+			if (++routerFlows[router] > routerPeak[router])
+				routerPeak[router] = routerFlows[router];
+		}
+	}
+
+	/**
+	 * activate() starts the busy time of the links and routers of the flow,
+	 * which are not held by another active flow.
+	 * @param time
+	 * @param plistElement
+	 */
+	public void activate(double time, PListElement plistElement) {
+		int router = plistElement.srcX * meshHeight + plistElement.srcY;
+
+		if (routerActive[router]++ == 0)
+			routerBusySince[router] = time;
+		for (int link : plistElement.routeLinks) {
+			if (linkActive[link]++ == 0)
+				linkBusySince[link] = time;
+			router = routes.target(link);
+			if (routerActive[router]++ == 0)
+				routerBusySince[router] = time;
+		}
+	}
+
+	/**
+	 * stop() ends the busy time of the links and routers of the flow,
+	 * which are not held by another active flow.
+	 * @param time
+	 * @param plistElement
+	 */
+	protected void stop(double time, PListElement plistElement) {
+		int router = plistElement.srcX * meshHeight + plistElement.srcY;
+
+		if (--routerActive[router] == 0)
+			routerBusy[router] += time - routerBusySince[router];
+		for (int link : plistElement.routeLinks) {
+			if (--linkActive[link] == 0)
+				linkBusy[link] += time - linkBusySince[link];
+			router = routes.target(link);
+			if (--routerActive[router] == 0)
+				routerBusy[router] += time - routerBusySince[router];
+		}
+	}
+
+	/**
+	 * preempt() counts the preemption of an active flow by its active interferers.
+	 * It has to be called before the flow is marked inactive.
+	 * @param time
+	 * @param plistElement
+	 */
+	public void preempt(double time, PListElement plistElement) {
+		stop(time, plistElement);
+
+		int router = plistElement.srcX * meshHeight + plistElement.srcY;
+		routerSuffered[router]++;
+		for (int link : plistElement.routeLinks) {
+			linkSuffered[link]++;
+			routerSuffered[routes.target(link)]++;
+
+			// The link is where the flow is preempted if an active interferer holds it
+			for (int l = 0; l < plistElement.interference.size(); l++) {
+				PListElement interferer = plistElement.interference.elementAt(l);
+				if (interferer.active && !interferer.delivered &&
+					(interferer.route[link >> 6] & 1L << link) != 0) {
+					linkCaused[link]++;
+					routerCaused[routes.source(link)]++;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * deliver() removes a delivered active flow from its links and routers.
+	 * @param time
+	 * @param plistElement
+	 */
+	public void deliver(double time, PListElement plistElement) {
+		stop(time, plistElement);
+
+		routerFlows[plistElement.srcX * meshHeight + plistElement.srcY]--;
+		for (int link : plistElement.routeLinks) {
+			linkFlows[link]--;
+			routerFlows[routes.target(link)]--;
+		}
+	}
+
+	/**
+	 * linkBusy() returns the busy time of the link up to the given time.
+	 * @param link link number
+	 * @param time current time
+	 * @return time
+	 */
+	public double linkBusy(int link, double time) {
+		return linkBusy[link] + (linkActive[link] > 0 ? time - linkBusySince[link] : 0);
+	}
+
+	/**
+	 * routerBusy() returns the busy time of the router up to the given time.
+	 * @param router router number x * meshHeight + y
+	 * @param time current time
+	 * @return time
+	 */
+	public double routerBusy(int router, double time) {
+		return routerBusy[router] + (routerActive[router] > 0 ? time - routerBusySince[router] : 0);
+	}
+
+	public long linkSuffered(int link) {
+		return linkSuffered[link];
+	}
+
+	public long linkCaused(int link) {
+		return linkCaused[link];
+	}
+
+	public int linkPeak(int link) {
+		return linkPeak[link];
+	}
+
+	public long routerSuffered(int router) {
+		return routerSuffered[router];
+	}
+
+	public long routerCaused(int router) {
+		return routerCaused[router];
+	}
+
+	public int routerPeak(int router) {
+		return routerPeak[router];
+	}
+
+	/**
+	 * save() writes the table of the counters up to the given time to a file.
+	 * @param path
+	 * @param time current time
+	 * @throws IOException
+	 */
+	public void save(String path, double time) throws IOException {
+		PrintWriter output = new PrintWriter(new FileWriter(path));
+		try {
+			double elapsed = time - startTime;
+			output.println("kind\tindex\tsrcX\tsrcY\tdstX\tdstY\tbusy_time\tutilization\t" +
+						   "preemptions_suffered\tpreemptions_caused\tpeak_flows");
+			for (int link = 0; link < linkBusy.length; link++) {
+				int source = routes.source(link);
+				int target = routes.target(link);
+				double busy = linkBusy(link, time);
+				output.println("link\t" + link + "\t" + source / meshHeight + "\t" + source % meshHeight + "\t" +
+							   target / meshHeight + "\t" + target % meshHeight + "\t" +
+							   String.format("%.8f\t%.6f", busy, elapsed > 0 ? busy / elapsed : 0) + "\t" +
+							   linkSuffered[link] + "\t" + linkCaused[link] + "\t" + linkPeak[link]);
+			}
+			for (int router = 0; router < routerBusy.length; router++) {
+				int x = router / meshHeight;
+				int y = router % meshHeight;
+				double busy = routerBusy(router, time);
+				output.println("router\t" + router + "\t" + x + "\t" + y + "\t" + x + "\t" + y + "\t" +
+							   String.format("%.8f\t%.6f", busy, elapsed > 0 ? busy / elapsed : 0) + "\t" +
+							   routerSuffered[router] + "\t" + routerCaused[router] + "\t" + routerPeak[router]);
+			}
+			if (output.checkError())
+				throw new IOException("Cannot write " + path);
+		}
+		finally {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,1175 @@
+package lsi.noc.assessment22;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * NocEngine implements the transaction-level simulation of the task
+ * communication on the NoC without any dependency on Ptolemy, so that it can
+ * be driven by the interConnect actor as well as by plain Java programs.
+ * Algorithms are based on [1].
+ *
+ * The engine is driven by two calls: admit() adds a packet that has arrived
+ * at the current time, and update() brings all packets up to the given time.
+ * Packets delivered by an update are returned by delivered(), and the time at
+ * which the engine must be updated next is returned by nextWakeup(). Times are
+ * in seconds and must not decrease from one call to the next.
+ *
+ * Internally, time is counted in ticks of the time resolution - clock cycles in the
+ * model, where the resolution equals the clock period - so that the progress of
+ * the flows is computed in exact integer arithmetic. Times are converted to ticks
+ * when they are passed in and wakeup times back to seconds when they are returned,
+ * and the router latency has to be a whole number of ticks.
+ *
+ * Between updates, the whole state of the engine - plist with the progress of
+ * every element, the interference graph and the pending wakeups - can be written
+ * into a checkpoint by write() and restored by read(), which gives an engine that
+ * continues exactly as the original one would. Packets are written by a PacketWriter
+ * and read by a PacketReader supplied by the caller. The trace and the link counters are not part of the state.
+ *
+ * For a caller which does not know whether a packet arrives before the next update,
+ * mark() sets a savepoint, from which the engine can be updated ahead and brought back
+ * by rollback() if a packet arrives in the meantime, or kept by commit(). The changes
+ * made by the updates are journaled as they are made, so rolling back costs as much as
+ * the updates themselves rather than the whole state. Packets cannot be admitted while
+ * a savepoint is set, and the trace and the link counters are not rolled back.
+ *
+ * References:
+ * [1] Leandro Soares Indrusiak, James Harbin, Osmar Marchi dos Santos: Fast Simulation of Networks-on-Chip
+ *     with Priority-Preemptive Arbitration. EMBS Module website: http://www-course.cs.york.ac.uk/embs/
+*/
+
+public class NocEngine {
+
+	/**
+	 * PacketWriter writes the packets carried by the elements into a checkpoint.
+	 */
+	public interface PacketWriter {
+		void write(DataOutput output, Object packet) throws IOException;
+	}
+
+	/**
+	 * PacketReader reads the packets written by a PacketWriter from a checkpoint.
+	 */
+	public interface PacketReader {
+		Object read(DataInput input) throws IOException;
+	}
+
+	/**
+	 * Savepoint keeps the state of the engine at mark(): its scalars and heaps as they
+	 * were, the fields of the elements changed since then and the removals from plist,
+	 * the interference sets and the link flows in the order they were made.
+	 */
+	protected static class Savepoint {
+		double now;
+		long tick, flitCredit, hopCredit, lastUpdateTick, requestedTick;
+		boolean revisit;
+		long updates, projections, wakeupRequests, preemptions;
+		EventHeap<PListElement> completions, calendar;
+		EventHeap<Object> wakeups;
+		ArrayList<PListElement> dirty, deferred, delivered;
+		ArrayList<SavedElement> elements = new ArrayList<SavedElement>();
+		ArrayList<Removal> removals = new ArrayList<Removal>();
+	}
+
+	/**
+	 * SavedElement keeps the fields of an element changed by the updates.
+	 */
+	protected static class SavedElement {
+		PListElement element;
+		int activeInterferers, remainingPayload, lastHop, preemptions;
+		boolean active, delivered, dirty;
+		long ta, flitCredit, hopCredit, projectedCompletion;
+	}
+
+	/**
+	 * Removal records an element removed from a list at the given index, or from plist
+	 * after the given predecessor if the list is null.
+	 */
+	protected static class Removal {
+		List<PListElement> list;
+		int index;
+		PListElement element, predecessor;
+	}
+
+	// Time resolution of the engine unless set otherwise, as in the Ptolemy directors
+	public static final double DEFAULT_TIME_RESOLUTION = 1e-10;
+
+	// Mesh dimensions - the number of routers along X and Y
+	protected int meshWidth, meshHeight;
+
+	// Priority-sorted list of packets
+	protected PriorityList plist;
+
+	// Links used by XY routes between any pair of PEs
+	protected RouteTable routes;
+	// Elements of plist whose routes use each of the mesh links
+	protected ArrayList<ArrayList<PListElement>> linkFlows;
+	// Number of packets admitted so far
+	protected int admissions;
+
+	// Time for a packet to pass a single router, in seconds and in ticks
+	protected double routerLatency;
+	protected long routerTicks;
+	// Length of a tick in seconds, so that wakeup times are equal to the
+	// times the engine is updated at by a director with the same resolution
+	protected double timeResolution;
+	// Time of the update in progress or of the latest one, in seconds and in ticks
+	protected double now;
+	protected long tick;
+
+	// Incremental mode - on each update only the elements whose state may
+	// have changed are visited instead of the whole plist
+	protected boolean incremental;
+	// Elements to be visited on this update in plist order, and elements
+	// that are behind the current one and have to wait for the next update
+	protected PriorityQueue<PListElement> dirty;
+	protected ArrayList<PListElement> deferred;
+	// Element being visited, null outside of an update
+	protected PListElement cursor;
+	// Number of flits and hops granted to every active element by all updates
+	// so far. An active element has made the progress granted since it was last visited.
+	protected long flitCredit, hopCredit;
+	protected long lastUpdateTick;
+	// Active elements keyed by the flit credit at which their payload is fully sent
+	protected EventHeap<PListElement> completions;
+
+	// Coalesced wakeups - projected completion times are kept in a calendar
+	// and only the earliest valid one is turned into a wakeup
+	protected boolean coalesce;
+	// Active elements keyed by their projected completion tick
+	protected EventHeap<PListElement> calendar;
+	// Tick of the latest wakeup requested in coalesced mode
+	protected long requestedTick;
+	// Boolean showing whether an element behind the one being visited
+	// has to be visited on the next update
+	protected boolean revisit;
+
+	// Ticks at which the engine has to be updated
+	protected EventHeap<Object> wakeups;
+	// Elements delivered by the latest update
+	protected ArrayList<PListElement> delivered;
+
+	// Number of updates, projected completions, wakeups requested and preemptions
+	protected long updates, projections, wakeupRequests, preemptions;
+	// Trace the flow events are recorded into, null if they are not recorded
+	protected EventTrace trace;
+	// Counters of link and router use, null if they are not counted
+	protected LinkCounters counters;
+	// Savepoint set by mark(), null if the changes are not journaled,
+	// and the number of savepoints set so far
+	protected Savepoint savepoint;
+	protected int savepoints;
+
+	/**
+	 * Constructor creates an empty engine.
+	 * @param meshWidth number of routers along X
+	 * @param meshHeight number of routers along Y
+	 * @param routerLatency time for a packet to pass a single router
+	 * @param incremental whether only the affected elements are visited on each update
+	 * @param coalesce whether only the earliest projected completion is requested as a wakeup
+	 */
+	public NocEngine(int meshWidth, int meshHeight, double routerLatency,
+					 boolean incremental, boolean coalesce) {
+		if (meshWidth < 1 || meshHeight < 1)
+			throw new IllegalArgumentException("Mesh dimensions must be positive");
+
+		this.meshWidth = meshWidth;
+		this.meshHeight = meshHeight;
+		this.routerLatency = routerLatency;
+		setTimeResolution(DEFAULT_TIME_RESOLUTION);
+
+		plist = new PriorityList();
+		routes = new RouteTable(meshWidth, meshHeight);
+		linkFlows = new ArrayList<ArrayList<PListElement>>(routes.linkCount());
+		for (int i = 0; i < routes.linkCount(); i++)
+			linkFlows.add(new ArrayList<PListElement>());
+		admissions = 0;
+		now = Double.NEGATIVE_INFINITY;
+		tick = Long.MIN_VALUE;
+
+		this.incremental = incremental;
+		dirty = new PriorityQueue<PListElement>(16, PriorityList.ORDER);
+		deferred = new ArrayList<PListElement>();
+		cursor = null;
+		flitCredit = 0;
+		hopCredit = 0;
+		lastUpdateTick = Long.MIN_VALUE;
+		completions = new EventHeap<PListElement>();
+
+		this.coalesce = coalesce;
+		calendar = new EventHeap<PListElement>();
+		requestedTick = Long.MIN_VALUE;
+		revisit = false;
+
+		wakeups = new EventHeap<Object>();
+		delivered = new ArrayList<PListElement>();
+		updates = 0;
+		projections = 0;
+		wakeupRequests = 0;
+		preemptions = 0;
+		trace = null;
+		counters = null;
+		savepoint = null;
+		savepoints = 0;
+	}
+
+	/**
+	 * admit() adds a new message to the pList, while maintaining its priority-sorting
+	 * order. It also updates respective interference sets by checking if the new message
+	 * route overlaps with any of the existing routes. Only the messages registered
+	 * on the links of the new route are checked. The message takes part in
+	 * arbitration from the next update on.
+	 * @param srcX
+	 * @param srcY
+	 * @param dstX
+	 * @param dstY
+	 * @param priority lower value means higher priority
+	 * @param size payload in flits
+	 * @param time time at which the communication starts
+	 * @param packet payload object returned with the element on delivery
+	 * @return the new element
+	 */
+	public PListElement admit(int srcX, int srcY, int dstX, int dstY, int priority, int size,
+							  double time, Object packet) {
+		PListElement newElement, currentElement;
+
+		if (savepoint != null)
+			throw new IllegalStateException("Packets cannot be admitted while a savepoint is set");
+		if (srcX < 0 || srcX >= meshWidth || srcY < 0 || srcY >= meshHeight)
+			throw new IllegalArgumentException("Source (" + srcX + ", " + srcY + ") is outside of the mesh");
+		if (dstX < 0 || dstX >= meshWidth || dstY < 0 || dstY >= meshHeight)
+			throw new IllegalArgumentException("Destination (" + dstX + ", " + dstY + ") is outside of the mesh");
+
+		// Create a new pList element
+		newElement = new PListElement();
+		newElement.packet = packet;
+		newElement.commStartTime = time;
+		newElement.srcX = srcX;
+		newElement.srcY = srcY;
+		newElement.dstX = dstX;
+		newElement.dstY = dstY;
+		newElement.priority = priority;
+		newElement.size = size;
+		newElement.destPort = dstX * meshHeight + dstY;
+		// Number of hops (routers) between source and destination
+		newElement.numberOfHops = manhattanDistance(newElement);
+		// Links used by the route of the packet
+		newElement.route = routes.mask(srcX, srcY, dstX, dstY);
+		newElement.routeLinks = routes.links(srcX, srcY, dstX, dstY);
+		// Initially remaining payload is the full payload, i.e. size
+		newElement.remainingPayload = size;
+		newElement.admission = ++admissions;
+
+		// For all elements of pList that use any of the links of the new route,
+		// check if they will interfere with the new element, or if the element
+		// will interfere with them. Routes sharing a link always overlap.
+		for (int link : newElement.routeLinks) {
+			ArrayList<PListElement> flows = linkFlows.get(link);
+
+			for (int l=0; l < flows.size(); l++) {
+				currentElement = flows.get(l);
+
+				// The element shares several links with the new route
+				// and has already been checked
+				if (currentElement.lastChecked == newElement.admission)
+					continue;
+				currentElement.lastChecked = newElement.admission;
+
+				if (newElement.priority > currentElement.priority) {
+					// Priority of the new element is lower, so element L will
+					// interfere with the new element
+					newElement.interference.add(currentElement);
+					currentElement.dependents.add(newElement);
+					if (currentElement.active)
+						newElement.activeInterferers++;
+				}
+				else {
+					// Priority of the new element is bigger, so it will interfere
+					// with element L. The new element is not active yet.
+					currentElement.interference.add(newElement);
+					newElement.dependents.add(currentElement);
+				}
+			}
+			flows.add(newElement);
+		}
+		// Add new element to plist while maintaining the priority sort order
+		plist.add(newElement);
+		if (incremental)
+			markDirty(newElement);
+		if (trace != null)
+			trace.record(EventTrace.INJECT, time, newElement);
+		if (counters != null)
+			counters.admit(newElement);
+		return newElement;
+	}
+
+	/**
+	 * update() brings pList up to the given time in the configured mode.
+	 * Wakeups up to the given time are consumed by the update.
+	 * @param time current time
+	 */
+	public void update(double time) {
+		now = time;
+		tick = ticks(time);
+		delivered.clear();
+		while (wakeups.peekKey() <= tick)
+			wakeups.pop();
+
+		if (incremental)
+			updateDirtyElements();
+		else
+			updatePList();
+		if (coalesce)
+			requestNextWakeup();
+		updates++;
+	}
+
+	/**
+	 * delivered() returns the elements which have been delivered by the latest
+	 * update, in the order of delivery. The list is reused by the next update.
+	 * @return list of delivered elements
+	 */
+	public ArrayList<PListElement> delivered() {
+		return delivered;
+	}
+
+	/**
+	 * nextWakeup() returns the earliest time the engine has to be updated at.
+	 * It may be equal to the time of the latest update, in which case
+	 * the engine has to be updated again at that time.
+	 * @return time or positive infinity if nothing is pending
+	 */
+	public double nextWakeup() {
+		double next = wakeups.peekKey();
+		return next == Double.POSITIVE_INFINITY ? next : seconds((long)next);
+	}
+
+	/**
+	 * updatePList() maintains packet status during the communication time.
+     * It controls which messages should be active or inactive and it records
+     * how much time it would take for a message to get to destination based on
+     * the route and interference. Whether a message is blocked is told by the
+     * number of its active interferers, which is maintained by notifying
+     * dependents whenever a message is activated, preempted or delivered.
+	 */
+	protected void updatePList() {
+		PListElement currentElement, nextElement;
+		int hopsVisited;
+
+		// Iterate through all elements of the pList. The next element is read
+		// in advance, as the current one may be removed from the list.
+		for (currentElement = plist.first(); currentElement != null; currentElement = nextElement) {
+			nextElement = currentElement.next;
+			cursor = currentElement;
+			save(currentElement);
+			if (currentElement.active) {
+				// The element is currently active
+
+				// Update how many packets have been fully transmitted during
+				// the active time
+				currentElement.remainingPayload = currentElement.remainingPayload -
+													sentFlits(currentElement);
+				// The number of hops that could be visited by the leading packet
+				// during the active time
+				hopsVisited = (int)startedCycles(tick - currentElement.ta);
+				// The hop at which the leading packet currently is buffered
+				currentElement.lastHop = Math.min(
+												currentElement.numberOfHops,
+												currentElement.lastHop + hopsVisited);
+				currentElement.ta = tick;
+
+				if (currentElement.remainingPayload == 0) {
+					// All packets delivered
+					deliver(currentElement);
+				}
+				else if (currentElement.activeInterferers > 0) {
+					// Message is still not fully delivered, but a higher-priority
+					// interfering message is active, so it preempts the current message
+					if (counters != null)
+						counters.preempt(now, currentElement);
+					currentElement.active = false;
+					currentElement.preemptions++;
+					preemptions++;
+					notifyDependents(currentElement, -1);
+					if (trace != null)
+						trace.record(EventTrace.PREEMPT, now, currentElement);
+					// Update the current progress in terms of hops
+					hopsVisited = (int)startedCycles(tick - currentElement.ta);
+					currentElement.lastHop = Math.min(
+													currentElement.numberOfHops,
+													currentElement.lastHop + hopsVisited);
+				}
+			}
+			else if (currentElement.activeInterferers == 0) {
+				// None of the higher-priority messages are active, so get to work
+				activate(currentElement);
+			}
+		}
+		cursor = null;
+	}
+
+	/**
+	 * updateDirtyElements() has the same effect as updatePList(), but visits only
+	 * new elements, elements whose payload is fully sent by now and elements
+	 * whose interferers have changed their status. The other elements are either
+	 * blocked, or active and not blocked, and updatePList() would not change that.
+	 * Progress of active elements is accounted in credits shared by all of them:
+	 * each update grants the same number of flits and hops as sentFlits() and
+	 * updatePList() would grant to every active element, and an element takes
+	 * its share when visited.
+	 */
+	protected void updateDirtyElements() {
+		PListElement currentElement;
+
+		if (lastUpdateTick != Long.MIN_VALUE) {
+			flitCredit += wholeCycles(tick - lastUpdateTick) + 1;
+			hopCredit += startedCycles(tick - lastUpdateTick);
+		}
+		lastUpdateTick = tick;
+
+		// Elements which have sent their whole payload by now. Entries of elements
+		// that have been preempted in the meantime are stale and skipped.
+		while (completions.peekKey() <= flitCredit) {
+			currentElement = completions.pop();
+			if (currentElement.active && !currentElement.delivered)
+				markDirty(currentElement);
+		}
+		dirty.addAll(deferred);
+		deferred.clear();
+
+		while ((currentElement = dirty.poll()) != null) {
+			save(currentElement);
+			currentElement.dirty = false;
+			cursor = currentElement;
+
+			if (currentElement.active) {
+				// Take the progress made since the element was last visited
+				currentElement.remainingPayload = (int)Math.max(0,
+						currentElement.remainingPayload - (flitCredit - currentElement.flitCredit));
+				currentElement.lastHop = (int)Math.min(currentElement.numberOfHops,
+						currentElement.lastHop + (hopCredit - currentElement.hopCredit));
+				currentElement.flitCredit = flitCredit;
+				currentElement.hopCredit = hopCredit;
+				currentElement.ta = tick;
+
+				if (currentElement.remainingPayload == 0) {
+					deliver(currentElement);
+				}
+				else if (currentElement.activeInterferers > 0) {
+					// Preempted by a higher-priority message
+					if (counters != null)
+						counters.preempt(now, currentElement);
+					currentElement.active = false;
+					currentElement.preemptions++;
+					preemptions++;
+					notifyDependents(currentElement, -1);
+					if (trace != null)
+						trace.record(EventTrace.PREEMPT, now, currentElement);
+				}
+			}
+			else if (currentElement.activeInterferers == 0) {
+				activate(currentElement);
+			}
+		}
+		cursor = null;
+	}
+
+	/**
+	 * activate() starts transmission of the element and schedules a wakeup
+	 * to the time when we expect the message to be fully delivered. With coalesced
+	 * wakeups, the time is put into the calendar instead of being requested directly.
+	 * @param plistElement
+	 */
+	protected void activate(PListElement plistElement) {
+		save(plistElement);
+		plistElement.active = true;
+		plistElement.ta = tick;
+		notifyDependents(plistElement, 1);
+		if (counters != null)
+			counters.activate(now, plistElement);
+		if (trace != null)
+			trace.record(plistElement.preemptions == 0 ? EventTrace.ACTIVATE : EventTrace.RESUME,
+						 now, plistElement);
+
+		if (incremental) {
+			plistElement.flitCredit = flitCredit;
+			plistElement.hopCredit = hopCredit;
+			completions.push(flitCredit + plistElement.remainingPayload, plistElement);
+		}
+
+		projections++;
+		if (coalesce) {
+			plistElement.projectedCompletion = tick + noLoadLatency(plistElement);
+			calendar.push(plistElement.projectedCompletion, plistElement);
+		}
+		else {
+			wakeupRequests++;
+			wakeups.push(tick + noLoadLatency(plistElement), null);
+		}
+	}
+
+	/**
+	 * requestNextWakeup() requests a wakeup at the earliest projected completion
+	 * time, unless such wakeup has already been requested. Calendar entries of
+	 * elements, which have been preempted or delivered, are dropped. An element,
+	 * which is still active after its projected completion time, is checked again
+	 * one router latency later. So are the elements whose interferers have changed
+	 * status after they had been visited.
+	 */
+	protected void requestNextWakeup() {
+		PListElement plistElement;
+
+		while (!calendar.isEmpty()) {
+			plistElement = calendar.peek();
+			if (!plistElement.active || plistElement.delivered ||
+				plistElement.projectedCompletion != calendar.peekKey()) {
+				// Stale entry
+				calendar.pop();
+			}
+			else if (calendar.peekKey() <= tick) {
+				calendar.pop();
+				save(plistElement);
+				plistElement.projectedCompletion = tick + routerTicks;
+				calendar.push(plistElement.projectedCompletion, plistElement);
+			}
+			else
+				break;
+		}
+
+		// Elements behind the ones that have changed status are visited
+		// on the next update, which must happen even if nothing completes
+		double next = calendar.peekKey();
+		if (revisit) {
+			next = Math.min(next, tick + routerTicks);
+			revisit = false;
+		}
+
+		if (next != Double.POSITIVE_INFINITY &&
+			(requestedTick <= tick || next < requestedTick)) {
+			requestedTick = (long)next;
+			wakeupRequests++;
+			wakeups.push(next, null);
+		}
+	}
+
+	/**
+	 * ticks() converts a time in seconds to the nearest number of ticks.
+	 * @param time
+	 * @return number of ticks
+	 */
+	protected long ticks(double time) {
+		return Math.round(time / timeResolution);
+	}
+
+	/**
+	 * seconds() converts a number of ticks to seconds, which is a multiple
+	 * of the time resolution as the times of the directors are.
+	 * @param ticks
+	 * @return time
+	 */
+	protected double seconds(long ticks) {
+		return ticks * timeResolution;
+	}
+
+	/**
+	 * deliver() removes the element, which has sent its whole payload, from pList
+	 * and from the interference sets of its dependents.
+	 * @param plistElement
+	 */
+	protected void deliver(PListElement plistElement) {
+		save(plistElement);
+		plistElement.delivered = true;
+		if (savepoint != null) {
+			Removal removal = new Removal();
+			removal.element = plistElement;
+			removal.predecessor = plistElement.previous;
+			savepoint.removals.add(removal);
+		}
+		plist.remove(plistElement);
+		for (int link : plistElement.routeLinks)
+			remove(linkFlows.get(link), plistElement);
+		release(plistElement);
+
+		delivered.add(plistElement);
+		if (trace != null)
+			trace.record(EventTrace.DELIVER, now, plistElement);
+		if (counters != null)
+			counters.deliver(now, plistElement);
+	}
+
+	/**
+	 * markDirty() makes sure the element is visited by the incremental update.
+	 * Elements which come before the one being visited wait for the next update,
+	 * as updatePList() would also reach them only on its next sweep.
+	 * @param plistElement
+	 */
+	protected void markDirty(PListElement plistElement) {
+		if (plistElement.dirty)
+			return;
+		save(plistElement);
+		plistElement.dirty = true;
+		if (cursor != null && PriorityList.ORDER.compare(plistElement, cursor) < 0) {
+			deferred.add(plistElement);
+			revisit = true;
+		}
+		else
+			dirty.add(plistElement);
+	}
+
+	/**
+	 * changed() records that the number of active interferers of the element
+	 * has changed, so that the element gets visited.
+	 * @param plistElement
+	 */
+	protected void changed(PListElement plistElement) {
+		if (incremental)
+			markDirty(plistElement);
+		else if (cursor != null && PriorityList.ORDER.compare(plistElement, cursor) < 0)
+			revisit = true;
+	}
+
+	/**
+	 * notifyDependents() tells the elements the given element can interfere with
+	 * that it has been activated or stopped being active.
+	 * @param plistElement
+	 * @param change 1 on activation, -1 on preemption or delivery
+	 */
+	protected void notifyDependents(PListElement plistElement, int change) {
+		PListElement dependent;
+
+		for (int l = 0; l < plistElement.dependents.size(); l++) {
+			dependent = plistElement.dependents.elementAt(l);
+			save(dependent);
+			dependent.activeInterferers += change;
+			changed(dependent);
+		}
+	}
+
+	/**
+	 * release() removes a delivered active element from the interference sets of its
+	 * dependents and from the reverse interference sets of its interferers.
+	 * @param plistElement
+	 */
+	protected void release(PListElement plistElement) {
+		PListElement dependent;
+
+		for (int l = 0; l < plistElement.dependents.size(); l++) {
+			dependent = plistElement.dependents.elementAt(l);
+			save(dependent);
+			dependent.activeInterferers--;
+			remove(dependent.interference, plistElement);
+			changed(dependent);
+		}
+		for (int l = 0; l < plistElement.interference.size(); l++)
+			remove(plistElement.interference.elementAt(l).dependents, plistElement);
+	}
+
+	/**
+	 * remove() removes the element from a list, journaling the removal if a savepoint is set.
+	 * @param list
+	 * @param plistElement
+	 */
+	protected void remove(List<PListElement> list, PListElement plistElement) {
+		int index = list.indexOf(plistElement);
+		if (index < 0)
+			return;
+		list.remove(index);
+		if (savepoint != null) {
+			Removal removal = new Removal();
+			removal.list = list;
+			removal.index = index;
+			removal.element = plistElement;
+			savepoint.removals.add(removal);
+		}
+	}
+
+	/**
+	 * mark() sets a savepoint, which rollback() brings the engine back to. It must not
+	 * be called during an update.
+	 */
+	public void mark() {
+		if (cursor != null)
+			throw new IllegalStateException("A savepoint cannot be set during an update");
+
+		savepoint = new Savepoint();
+		savepoints++;
+		savepoint.now = now;
+		savepoint.tick = tick;
+		savepoint.flitCredit = flitCredit;
+		savepoint.hopCredit = hopCredit;
+		savepoint.lastUpdateTick = lastUpdateTick;
+		savepoint.requestedTick = requestedTick;
+		savepoint.revisit = revisit;
+		savepoint.updates = updates;
+		savepoint.projections = projections;
+		savepoint.wakeupRequests = wakeupRequests;
+		savepoint.preemptions = preemptions;
+		savepoint.completions = new EventHeap<PListElement>(completions);
+		savepoint.calendar = new EventHeap<PListElement>(calendar);
+		savepoint.wakeups = new EventHeap<Object>(wakeups);
+		savepoint.dirty = new ArrayList<PListElement>(dirty);
+		savepoint.deferred = new ArrayList<PListElement>(deferred);
+		savepoint.delivered = new ArrayList<PListElement>(delivered);
+	}
+
+	/**
+	 * rollback() brings the engine back to the savepoint set by mark() and removes it.
+	 */
+	public void rollback() {
+		if (savepoint == null)
+			throw new IllegalStateException("No savepoint is set");
+
+		// Removals are undone in the reverse order, so that every element
+		// goes back to the index it was removed from
+		for (int i = savepoint.removals.size() - 1; i >= 0; i--) {
+			Removal removal = savepoint.removals.get(i);
+			if (removal.list == null)
+				plist.restore(removal.element, removal.predecessor);
+			else
+				removal.list.add(removal.index, removal.element);
+		}
+		for (SavedElement saved : savepoint.elements) {
+			PListElement element = saved.element;
+			element.activeInterferers = saved.activeInterferers;
+			element.remainingPayload = saved.remainingPayload;
+			element.lastHop = saved.lastHop;
+			element.preemptions = saved.preemptions;
+			element.active = saved.active;
+			element.delivered = saved.delivered;
+			element.dirty = saved.dirty;
+			element.ta = saved.ta;
+			element.flitCredit = saved.flitCredit;
+			element.hopCredit = saved.hopCredit;
+			element.projectedCompletion = saved.projectedCompletion;
+		}
+
+		now = savepoint.now;
+		tick = savepoint.tick;
+		flitCredit = savepoint.flitCredit;
+		hopCredit = savepoint.hopCredit;
+		lastUpdateTick = savepoint.lastUpdateTick;
+		requestedTick = savepoint.requestedTick;
+		revisit = savepoint.revisit;
+		updates = savepoint.updates;
+		projections = savepoint.projections;
+		wakeupRequests = savepoint.wakeupRequests;
+		preemptions = savepoint.preemptions;
+		completions = savepoint.completions;
+		calendar = savepoint.calendar;
+		wakeups = savepoint.wakeups;
+		dirty.clear();
+		dirty.addAll(savepoint.dirty);
+		deferred.clear();
+		deferred.addAll(savepoint.deferred);
+		delivered.clear();
+		delivered.addAll(savepoint.delivered);
+		savepoint = null;
+	}
+
+	/**
+	 * commit() keeps the changes made since mark() and removes the savepoint.
+	 */
+	public void commit() {
+		savepoint = null;
+	}
+
+	/**
+	 * save() keeps the fields of the element in the savepoint before they are
+	 * first changed after mark().
+	 * @param plistElement
+	 */
+	protected void save(PListElement plistElement) {
+		if (savepoint == null || plistElement.savepoint == savepoints)
+			return;
+		plistElement.savepoint = savepoints;
+
+		SavedElement saved = new SavedElement();
+		saved.element = plistElement;
+		saved.activeInterferers = plistElement.activeInterferers;
+		saved.remainingPayload = plistElement.remainingPayload;
+		saved.lastHop = plistElement.lastHop;
+		saved.preemptions = plistElement.preemptions;
+		saved.active = plistElement.active;
+		saved.delivered = plistElement.delivered;
+		saved.dirty = plistElement.dirty;
+		saved.ta = plistElement.ta;
+		saved.flitCredit = plistElement.flitCredit;
+		saved.hopCredit = plistElement.hopCredit;
+		saved.projectedCompletion = plistElement.projectedCompletion;
+		savepoint.elements.add(saved);
+	}
+
+	/**
+	 * Overlap() checks if the routes of two elements overlap at least partly and hence
+     * can interfere with each other. Route overlap occurs when two routes share
+     * same links between routers, which is a single AND on their link bitsets.
+	 * @param firstElement
+	 * @param secondElement
+	 * @return boolean representing overlapping status
+	 */
+	protected boolean overlap(PListElement firstElement, PListElement secondElement) {
+		return RouteTable.overlap(firstElement.route, secondElement.route);
+	}
+
+	/**
+	 * sentFlits() calculates how many packets have reached the destination
+	 * during the active time.
+	 * @param plistElement
+	 * @return integer number of packets
+	 */
+	protected int sentFlits(PListElement plistElement) {
+		// A period of activity
+		long ticksElapsed = tick - plistElement.ta;
+
+		// The number of flits that have reached the destination, one more
+		// than the whole router cycles of activity, as the progress credits grant
+		return (int)Math.min(plistElement.remainingPayload, wholeCycles(ticksElapsed) + 1);
+	}
+
+	/**
+	 * wholeCycles() returns the number of router latencies that have fully
+	 * elapsed in the given number of ticks.
+	 * @param ticks non-negative number of ticks
+	 * @return number of router latencies
+	 */
+	protected long wholeCycles(long ticks) {
+		return ticks / routerTicks;
+	}
+
+	/**
+	 * startedCycles() returns the number of router latencies that have started
+	 * in the given number of ticks.
+	 * @param ticks non-negative number of ticks
+	 * @return number of router latencies
+	 */
+	protected long startedCycles(long ticks) {
+		return (ticks + routerTicks - 1) / routerTicks;
+	}
+
+	/**
+	 * noLoadLatency() returns the time required for all remaining packages
+	 * of the message to reach the destination.
+	 * @param plistElement
+	 * @return number of ticks
+	 */
+	protected long noLoadLatency(PListElement plistElement) {
+		return (plistElement.numberOfHops - plistElement.lastHop + plistElement.remainingPayload - 1) * routerTicks;
+	}
+
+	/**
+	 * manhattanDistance() returns the number of hops between
+	 * message source and destination.
+	 * @param plistElement
+	 * @return integer number of hops
+	 */
+	protected int manhattanDistance(PListElement plistElement) {
+		return Math.abs(plistElement.srcX - plistElement.dstX) +
+			   Math.abs(plistElement.srcY - plistElement.dstY);
+	}
+
+	/**
+	 * write() writes the state of the engine into a checkpoint.
+	 * It must not be called during an update.
+	 * @param output
+	 * @param writer writer of the packets
+	 * @throws IOException
+	 */
+	public void write(DataOutput output, PacketWriter writer) throws IOException {
+		if (cursor != null)
+			throw new IllegalStateException("The engine cannot be written during an update");
+
+		// Positions of the elements in plist, by which they are referenced
+		IdentityHashMap<PListElement, Integer> positions = new IdentityHashMap<PListElement, Integer>();
+		for (PListElement element = plist.first(); element != null; element = element.next)
+			positions.put(element, positions.size());
+
+		output.writeInt(meshWidth);
+		output.writeInt(meshHeight);
+		output.writeDouble(routerLatency);
+		output.writeBoolean(incremental);
+		output.writeBoolean(coalesce);
+		output.writeDouble(timeResolution);
+		output.writeInt(admissions);
+		output.writeDouble(now);
+		output.writeLong(tick);
+		output.writeLong(flitCredit);
+		output.writeLong(hopCredit);
+		output.writeLong(lastUpdateTick);
+		output.writeLong(requestedTick);
+		output.writeBoolean(revisit);
+		output.writeLong(updates);
+		output.writeLong(projections);
+		output.writeLong(wakeupRequests);
+		output.writeLong(preemptions);
+
+		output.writeInt(plist.size());
+		for (PListElement element = plist.first(); element != null; element = element.next) {
+			writer.write(output, element.packet);
+			output.writeInt(element.srcX);
+			output.writeInt(element.srcY);
+			output.writeInt(element.dstX);
+			output.writeInt(element.dstY);
+			output.writeInt(element.priority);
+			output.writeInt(element.size);
+			output.writeInt(element.admission);
+			output.writeInt(element.lastChecked);
+			output.writeInt(element.activeInterferers);
+			output.writeInt(element.remainingPayload);
+			output.writeInt(element.lastHop);
+			output.writeInt(element.preemptions);
+			output.writeBoolean(element.active);
+			output.writeBoolean(element.dirty);
+			output.writeDouble(element.commStartTime);
+			output.writeLong(element.ta);
+			output.writeLong(element.projectedCompletion);
+			output.writeLong(element.flitCredit);
+			output.writeLong(element.hopCredit);
+		}
+		// Interference graph, keeping the order of the sets
+		for (PListElement element = plist.first(); element != null; element = element.next) {
+			writePositions(output, element.interference, positions);
+			writePositions(output, element.dependents, positions);
+		}
+		for (ArrayList<PListElement> flows : linkFlows)
+			writePositions(output, flows, positions);
+		writePositions(output, deferred, positions);
+		writePositions(output, dirty, positions);
+		// Heaps in their layout, so that entries with equal keys are popped in the same order.
+		// Entries of delivered elements are stale and are written as -1.
+		writeHeap(output, completions, positions);
+		writeHeap(output, calendar, positions);
+		output.writeInt(wakeups.size());
+		for (int i = 0; i < wakeups.size(); i++)
+			output.writeDouble(wakeups.key(i));
+	}
+
+	protected static void writePositions(DataOutput output, Iterable<PListElement> elements,
+										 IdentityHashMap<PListElement, Integer> positions) throws IOException {
+		int count = 0;
+		for (PListElement element : elements)
+			count++;
+		output.writeInt(count);
+		for (PListElement element : elements)
+			output.writeInt(positions.get(element));
+	}
+
+	protected static void writeHeap(DataOutput output, EventHeap<PListElement> heap,
+									IdentityHashMap<PListElement, Integer> positions) throws IOException {
+		output.writeInt(heap.size());
+		for (int i = 0; i < heap.size(); i++) {
+			Integer position = positions.get(heap.item(i));
+			output.writeDouble(heap.key(i));
+			output.writeInt(position == null ? -1 : position);
+		}
+	}
+
+	/**
+	 * read() restores an engine from a checkpoint written by write().
+	 * @param input
+	 * @param reader reader of the packets
+	 * @return engine
+	 * @throws IOException
+	 */
+	public static NocEngine read(DataInput input, PacketReader reader) throws IOException {
+		int meshWidth = input.readInt();
+		int meshHeight = input.readInt();
+		double routerLatency = input.readDouble();
+		boolean incremental = input.readBoolean();
+		boolean coalesce = input.readBoolean();
+		NocEngine engine = new NocEngine(meshWidth, meshHeight, routerLatency, incremental, coalesce);
+		engine.setTimeResolution(input.readDouble());
+		engine.admissions = input.readInt();
+		engine.now = input.readDouble();
+		engine.tick = input.readLong();
+		engine.flitCredit = input.readLong();
+		engine.hopCredit = input.readLong();
+		engine.lastUpdateTick = input.readLong();
+		engine.requestedTick = input.readLong();
+		engine.revisit = input.readBoolean();
+		engine.updates = input.readLong();
+		engine.projections = input.readLong();
+		engine.wakeupRequests = input.readLong();
+		engine.preemptions = input.readLong();
+
+		PListElement[] elements = new PListElement[input.readInt()];
+		for (int i = 0; i < elements.length; i++) {
+			PListElement element = new PListElement();
+			element.packet = reader.read(input);
+			element.srcX = input.readInt();
+			element.srcY = input.readInt();
+			element.dstX = input.readInt();
+			element.dstY = input.readInt();
+			element.priority = input.readInt();
+			element.size = input.readInt();
+			element.admission = input.readInt();
+			element.lastChecked = input.readInt();
+			element.activeInterferers = input.readInt();
+			element.remainingPayload = input.readInt();
+			element.lastHop = input.readInt();
+			element.preemptions = input.readInt();
+			element.active = input.readBoolean();
+			element.dirty = input.readBoolean();
+			element.commStartTime = input.readDouble();
+			element.ta = input.readLong();
+			element.projectedCompletion = input.readLong();
+			element.flitCredit = input.readLong();
+			element.hopCredit = input.readLong();
+			if (element.srcX < 0 || element.srcX >= meshWidth || element.srcY < 0 || element.srcY >= meshHeight ||
+				element.dstX < 0 || element.dstX >= meshWidth || element.dstY < 0 || element.dstY >= meshHeight)
+				throw new IOException("Element " + i + " of the checkpoint is outside of the mesh");
+			element.destPort = element.dstX * meshHeight + element.dstY;
+			element.numberOfHops = engine.manhattanDistance(element);
+			element.route = engine.routes.mask(element.srcX, element.srcY, element.dstX, element.dstY);
+			element.routeLinks = engine.routes.links(element.srcX, element.srcY, element.dstX, element.dstY);
+			elements[i] = element;
+			engine.plist.add(element);
+		}
+		for (PListElement element : elements) {
+			readPositions(input, element.interference, elements);
+			readPositions(input, element.dependents, elements);
+		}
+		for (ArrayList<PListElement> flows : engine.linkFlows)
+			readPositions(input, flows, elements);
+		readPositions(input, engine.deferred, elements);
+		readPositions(input, engine.dirty, elements);
+		readHeap(input, engine.completions, elements);
+		readHeap(input, engine.calendar, elements);
+		int count = input.readInt();
+		for (int i = 0; i < count; i++)
+			engine.wakeups.push(input.readDouble(), null);
+		return engine;
+	}
+
+	protected static void readPositions(DataInput input, Collection<PListElement> elements,
+										PListElement[] byPosition) throws IOException {
+		int count = input.readInt();
+		for (int i = 0; i < count; i++) {
+			int position = input.readInt();
+			if (position < 0 || position >= byPosition.length)
+				throw new IOException("Checkpoint refers to element " + position + " of " + byPosition.length);
+			elements.add(byPosition[position]);
+		}
+	}
+
+	protected static void readHeap(DataInput input, EventHeap<PListElement> heap,
+								   PListElement[] byPosition) throws IOException {
+		// Stands for the delivered elements of stale entries
+		PListElement delivered = new PListElement();
+		delivered.delivered = true;
+
+		// Pushing the entries in the order of the heap array rebuilds the same layout
+		int count = input.readInt();
+		for (int i = 0; i < count; i++) {
+			double key = input.readDouble();
+			int position = input.readInt();
+			if (position >= byPosition.length)
+				throw new IOException("Checkpoint refers to element " + position + " of " + byPosition.length);
+			heap.push(key, position < 0 ? delivered : byPosition[position]);
+		}
+	}
+
+	public int meshWidth() {
+		return meshWidth;
+	}
+
+	public int meshHeight() {
+		return meshHeight;
+	}
+
+	public double routerLatency() {
+		return routerLatency;
+	}
+
+	/**
+	 * setTimeResolution() sets the length of the ticks the engine counts time in,
+	 * so that the times it has to be updated at are multiples of the resolution,
+	 * as the times of the Ptolemy directors are. It has to be called before the first update.
+	 * @param resolution positive resolution of which the router latency is a whole multiple,
+	 * or 0 for DEFAULT_TIME_RESOLUTION
+	 */
+	public void setTimeResolution(double resolution) {
+		if (resolution < 0)
+			throw new IllegalArgumentException("Time resolution must not be negative");
+		if (resolution == 0)
+			resolution = DEFAULT_TIME_RESOLUTION;
+		long latency = Math.round(routerLatency / resolution);
+		if (latency < 1 || Math.abs(routerLatency / resolution - latency) > 1e-6)
+			throw new IllegalArgumentException("Router latency " + routerLatency +
+											   " is not a whole number of time resolutions " + resolution);
+		timeResolution = resolution;
+		routerTicks = latency;
+	}
+
+	/**
+	 * setTrace() makes the engine record its flow events into the trace.
+	 * @param trace trace or null to stop recording
+	 */
+	public void setTrace(EventTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * setCounters() makes the engine count the use of links and routers by its flows.
+	 * The flows in plist are counted from the time of the latest update, or from 0
+	 * before the first one.
+	 * @param counters counters of a mesh of the same size, or null to stop counting
+	 */
+	public void setCounters(LinkCounters counters) {
+		if (counters != null &&
+			(counters.routes.width != meshWidth || counters.routes.height != meshHeight))
+			throw new IllegalArgumentException("Counters are for a mesh of a different size");
+		this.counters = counters;
+		if (counters == null)
+			return;
+		double time = now == Double.NEGATIVE_INFINITY ? 0 : now;
+		counters.start(time);
+		for (PListElement element = plist.first(); element != null; element = element.next) {
+			counters.admit(element);
+			if (element.active)
+				counters.activate(time, element);
+		}
+	}
+
+	public LinkCounters counters() {
+		return counters;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	public boolean isCoalescing() {
+		return coalesce;
+	}
+
+	/**
+	 * inFlight() returns the number of admitted packets which have not been delivered yet.
+	 * @return integer number of packets
+	 */
+	public int inFlight() {
+		return plist.size();
+	}
+
+	public long updates() {
+		return updates;
+	}
+
+	public long projections() {
+		return projections;
+	}
+
+	public long wakeupRequests() {
+		return wakeupRequests;
+	}
+
+	public long preemptions() {
+		return preemptions;
+	}
+}
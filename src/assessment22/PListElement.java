@@ -1,17 +1,40 @@
 package lsi.noc.assessment22;
 
 import java.util.Vector;
-import ptolemy.data.RecordToken;
 
 public class PListElement {	
-	// Transmission packet
-	public RecordToken packet;
+	// Transmission packet, opaque to NocEngine
+	public Object packet;
+	// Packet fields decoded once on admission, so that the
+	// hot paths of NocEngine never look them up in the packet
+	public int srcX, srcY;
+	public int dstX, dstY;
+	public int priority;
+	public int size;
+	// Index of the output port the packet is delivered to
+	public int destPort;
+	// Time at which the communication has started
+	public double commStartTime;
+	// Bitset of the mesh links used by the route of the packet
+	public long[] route;
+	// Numbers of the mesh links used by the route
+	public int[] routeLinks;
+	// Sequence number of the admission of the element, and the number of
+	// the latest admission the element has been checked against
+	public int admission, lastChecked;
+	// Neighbours in the priority-sorted plist
+	public PListElement previous, next;
 	// Interference set containing references to all elements of 
 	// plist that can interfere with the element
 	public Vector<PListElement> interference;
+	// Reverse interference set containing references to all elements
+	// of plist the element can interfere with
+	public Vector<PListElement> dependents;
+	// The number of elements of the interference set that are active
+	public int activeInterferers;
 	public boolean active;
-	// Time active
-	public double ta;
+	// Time active, in ticks of NocEngine
+	public long ta;
 	public int remainingPayload;
 	// The number of hops between source and destination
 	public int numberOfHops;
@@ -20,15 +43,48 @@ public class PListElement {
 	public int lastHop;
 	// Boolean showing whether the message has been delivered or not 
 	public boolean delivered;
+	// Number of times the message has been preempted
+	public int preemptions;
+	// Progress credits of NocEngine at the time the element was last
+	// updated, used by the incremental update only
+	public long flitCredit, hopCredit;
+	// Boolean showing whether the element awaits the incremental update
+	public boolean dirty;
+	// Tick at which the element is expected to be fully delivered, if it stays active
+	public long projectedCompletion;
+	// Number of the savepoint of NocEngine the fields of the element have been kept in
+	public int savepoint;
 
 	public PListElement() {
 		interference = new Vector<PListElement>();
+		dependents = new Vector<PListElement>();
+		activeInterferers = 0;
+		srcX = 0;
+		srcY = 0;
+		dstX = 0;
+		dstY = 0;
+		priority = 0;
+		size = 0;
+		destPort = 0;
+		commStartTime = 0.0;
+		route = null;
+		routeLinks = null;
+		admission = 0;
+		lastChecked = 0;
+		previous = null;
+		next = null;
 		active = false;
-		ta = 0.0;
+		ta = 0;
 		remainingPayload = 0;
 		numberOfHops = 0;
 		lastHop = 0;
 		delivered = false;
+		preemptions = 0;
+		flitCredit = 0;
+		hopCredit = 0;
+		dirty = false;
+		projectedCompletion = 0;
+		savepoint = 0;
 		
 	}
 }
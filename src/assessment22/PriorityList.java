@@ -0,0 +1,154 @@
+package lsi.noc.assessment22;
+
+import java.util.Comparator;
+import java.util.TreeMap;
+
+/**
+ * PriorityList keeps plist elements sorted by priority (lower value
+ * means higher priority). Elements of equal priority are kept in the
+ * order of their insertion.
+ *
+ * Elements are chained into a doubly-linked list through their previous
+ * and next fields, and the last element of each priority level is kept
+ * in a tree map. Insertion takes O(log P) time, where P is the number of
+ * distinct priorities, and removal takes O(1) time. The list is traversed
+ * with first() and the next fields of the elements. The element being
+ * visited may be removed during the traversal as long as its next element
+ * has been read beforehand.
+*/
+
+public class PriorityList {
+
+	// Order of the elements in the list - by priority, then by admission
+	public static final Comparator<PListElement> ORDER = new Comparator<PListElement>() {
+		public int compare(PListElement first, PListElement second) {
+			if (first.priority != second.priority)
+				return first.priority < second.priority ? -1 : 1;
+			return Integer.compare(first.admission, second.admission);
+		}
+	};
+
+	// First and last elements of the list
+	protected PListElement head, tail;
+	// The last element of each priority level
+	protected TreeMap<Integer, PListElement> levels;
+	protected int size;
+
+	public PriorityList() {
+		head = null;
+		tail = null;
+		levels = new TreeMap<Integer, PListElement>();
+		size = 0;
+	}
+
+	/**
+	 * add() inserts the element after all elements of
+	 * higher or equal priority.
+	 * @param element
+	 */
+	public void add(PListElement element) {
+		PListElement predecessor = levels.get(element.priority);
+
+		if (predecessor == null) {
+			// First element of its priority level, so it goes after
+			// the last element of the next higher priority level
+			Integer higher = levels.lowerKey(element.priority);
+			if (higher != null)
+				predecessor = levels.get(higher);
+		}
+
+		element.previous = predecessor;
+		if (predecessor == null) {
+			element.next = head;
+			head = element;
+		}
+		else {
+			element.next = predecessor.next;
+			predecessor.next = element;
+		}
+		if (element.next == null)
+			tail = element;
+		else
+			element.next.previous = element;
+
+		levels.put(element.priority, element);
+		size++;
+	}
+
+	/**
+	 * remove() unlinks the element from the list. The next field of the element
+	 * is left untouched, so that a traversal can continue from it.
+	 * @param element
+	 */
+	public void remove(PListElement element) {
+		if (levels.get(element.priority) == element) {
+			// The element closes its priority level
+			if (element.previous != null && element.previous.priority == element.priority)
+				levels.put(element.priority, element.previous);
+			else
+				levels.remove(element.priority);
+		}
+
+		if (element.previous == null)
+			head = element.next;
+		else
+			element.previous.next = element.next;
+		if (element.next == null)
+			tail = element.previous;
+		else
+			element.next.previous = element.previous;
+
+		element.previous = null;
+		size--;
+	}
+
+	/**
+	 * restore() puts a removed element back after the element which preceded it,
+	 * undoing remove(). Several removals have to be undone in the reverse order.
+	 * @param element
+	 * @param predecessor element which preceded the removed one, null if it was the first
+	 */
+	public void restore(PListElement element, PListElement predecessor) {
+		element.previous = predecessor;
+		if (predecessor == null) {
+			element.next = head;
+			head = element;
+		}
+		else {
+			element.next = predecessor.next;
+			predecessor.next = element;
+		}
+		if (element.next == null)
+			tail = element;
+		else
+			element.next.previous = element;
+
+		if (element.next == null || element.next.priority != element.priority)
+			levels.put(element.priority, element);
+		size++;
+	}
+
+	/**
+	 * first() returns the highest-priority element.
+	 * @return the first element or null if the list is empty
+	 */
+	public PListElement first() {
+		return head;
+	}
+
+	/**
+	 * last() returns the lowest-priority element.
+	 * @return the last element or null if the list is empty
+	 */
+	public PListElement last() {
+		return tail;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
@@ -0,0 +1,154 @@
+package lsi.noc.assessment22;
+
+/**
+ * RouteTable describes XY routes on the mesh as sets of directed links
+ * between neighbouring routers. Each route is stored as a bitset, so that
+ * two routes overlap exactly when their bitsets have a common bit.
+ *
+ * Links are numbered as follows (W and H are the mesh dimensions in X and Y):
+ * - [0, E) - links from (x, y) to (x+1, y), E = (W-1)*H
+ * - [E, 2E) - links from (x+1, y) to (x, y)
+ * - [2E, 2E+V) - links from (x, y) to (x, y+1), V = W*(H-1)
+ * - [2E+V, 2E+2V) - links from (x, y+1) to (x, y)
+ * Routes are computed on first use and shared by all flows with the same
+ * source and destination. Each route is also available as a list of link
+ * numbers, which is used for indexing flows by links.
+*/
+
+public class RouteTable {
+
+	// Mesh dimensions
+	protected int width, height;
+	// Number of horizontal and vertical links in one direction
+	protected int horizontalLinks, verticalLinks;
+	// Total number of directed links and the number of 64-bit words per bitset
+	protected int linkCount, words;
+
+	// Route bitsets and link lists indexed by source * nodes + destination
+	protected long[][] masks;
+	protected int[][] links;
+
+	/**
+	 * Constructor computes link numbering for the mesh of given size.
+	 * @param width number of routers along X
+	 * @param height number of routers along Y
+	 */
+	public RouteTable(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		horizontalLinks = (width - 1) * height;
+		verticalLinks = width * (height - 1);
+		linkCount = 2 * horizontalLinks + 2 * verticalLinks;
+		words = Math.max(1, (linkCount + 63) / 64);
+
+		masks = new long[width * height * width * height][];
+		links = new int[width * height * width * height][];
+	}
+
+	/**
+	 * linkCount() returns the number of directed links in the mesh.
+	 * @return integer number of links
+	 */
+	public int linkCount() {
+		return linkCount;
+	}
+
+	/**
+	 * mask() returns the bitset of links used by the XY route
+	 * from the source to the destination.
+	 * @param srcX
+	 * @param srcY
+	 * @param dstX
+	 * @param dstY
+	 * @return array of 64-bit words, which must not be modified
+	 */
+	public long[] mask(int srcX, int srcY, int dstX, int dstY) {
+		int index = (srcX * height + srcY) * width * height + dstX * height + dstY;
+
+		if (masks[index] == null) {
+			long[] mask = new long[words];
+			for (int link : links(srcX, srcY, dstX, dstY))
+				mask[link >> 6] |= 1L << link;
+			masks[index] = mask;
+		}
+		return masks[index];
+	}
+
+	/**
+	 * links() returns the numbers of links used by the XY route
+	 * from the source to the destination in the order they are traversed.
+	 * @param srcX
+	 * @param srcY
+	 * @param dstX
+	 * @param dstY
+	 * @return array of link numbers, which must not be modified
+	 */
+	public int[] links(int srcX, int srcY, int dstX, int dstY) {
+		int index = (srcX * height + srcY) * width * height + dstX * height + dstY;
+
+		if (links[index] == null) {
+			int[] route = new int[Math.abs(srcX - dstX) + Math.abs(srcY - dstY)];
+			int hop = 0;
+
+			// Packets first travel along X in the row of the source...
+			for (int x = srcX; x < dstX; x++)
+				route[hop++] = srcY * (width - 1) + x;
+			for (int x = srcX; x > dstX; x--)
+				route[hop++] = horizontalLinks + srcY * (width - 1) + x - 1;
+			// ...and then along Y in the column of the destination
+			for (int y = srcY; y < dstY; y++)
+				route[hop++] = 2 * horizontalLinks + dstX * (height - 1) + y;
+			for (int y = srcY; y > dstY; y--)
+				route[hop++] = 2 * horizontalLinks + verticalLinks + dstX * (height - 1) + y - 1;
+			links[index] = route;
+		}
+		return links[index];
+	}
+
+	/**
+	 * source() returns the router a link leaves.
+	 * @param link link number
+	 * @return router number x * height + y
+	 */
+	public int source(int link) {
+		return end(link, false);
+	}
+
+	/**
+	 * target() returns the router a link enters.
+	 * @param link link number
+	 * @return router number x * height + y
+	 */
+	public int target(int link) {
+		return end(link, true);
+	}
+
+	protected int end(int link, boolean target) {
+		int step = target ? 1 : 0;
+
+		if (link < horizontalLinks)
+			return (link % (width - 1) + step) * height + link / (width - 1);
+		link -= horizontalLinks;
+		if (link < horizontalLinks)
+			return (link % (width - 1) + 1 - step) * height + link / (width - 1);
+		link -= horizontalLinks;
+		if (link < verticalLinks)
+			return link / (height - 1) * height + link % (height - 1) + step;
+		link -= verticalLinks;
+		return link / (height - 1) * height + link % (height - 1) + 1 - step;
+	}
+
+	/**
+	 * overlap() checks whether two routes share at least one link.
+	 * @param firstMask
+	 * @param secondMask
+	 * @return boolean representing overlapping status
+	 */
+	public static boolean overlap(long[] firstMask, long[] secondMask) {
+		for (int i = 0; i < firstMask.length; i++)
+			if ((firstMask[i] & secondMask[i]) != 0)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,79 @@
+package lsi.noc.assessment22;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * SimulatorEvents holds the JDK Flight Recorder events of SimulatorMetrics.
+ * A Fire event is committed for every firing of the simulator that takes
+ * longer than its threshold, 1 ms by default, and a Statistics event with the
+ * totals of each simulator is emitted every second while a recording is running.
+ * The events are part of the jdk.jfr module of JDK 11 and later.
+*/
+
+public class SimulatorEvents {
+
+	@Name("lsi.noc.Fire")
+	@Label("NoC Simulator Fire")
+	@Category("NoC Simulator")
+	@Description("A firing of the NoC simulator, with the time spent admitting packets and updating plist")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	public static class Fire extends Event {
+		@Label("Simulator")
+		public String simulator;
+		@Label("Model Time")
+		public double modelTime;
+		@Label("Admitted Packets")
+		public int admitted;
+		@Label("Delivered Packets")
+		public int delivered;
+		@Label("Plist Length")
+		public int plistLength;
+		@Label("Useless")
+		@Description("Whether the firing admitted, activated, preempted and delivered nothing")
+		public boolean useless;
+		@Label("Process New Packets")
+		@Timespan(Timespan.NANOSECONDS)
+		public long processNewPackets;
+		@Label("Update Plist")
+		@Timespan(Timespan.NANOSECONDS)
+		public long updatePList;
+	}
+
+	@Name("lsi.noc.Statistics")
+	@Label("NoC Simulator Statistics")
+	@Category("NoC Simulator")
+	@Description("Totals of a NoC simulator since its initialization")
+	@Period("1 s")
+	@StackTrace(false)
+	public static class Statistics extends Event {
+		@Label("Simulator")
+		public String simulator;
+		@Label("Fires")
+		public long fires;
+		@Label("Useless Fires")
+		public long uselessFires;
+		@Label("Plist Length")
+		public int plistLength;
+		@Label("Mean Plist Length")
+		public double meanPlistLength;
+		@Label("Mean Interference Size")
+		public double meanInterferenceSize;
+		@Label("Process New Packets")
+		@Timespan(Timespan.NANOSECONDS)
+		public long processNewPackets;
+		@Label("Update Plist")
+		@Timespan(Timespan.NANOSECONDS)
+		public long updatePList;
+		@Label("Simulated Seconds per Wall Second")
+		public double speed;
+	}
+}
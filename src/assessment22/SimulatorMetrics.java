@@ -0,0 +1,333 @@
+package lsi.noc.assessment22;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * SimulatorMetrics measures the simulator itself rather than the simulated NoC:
+ * - the number of fires (engine updates) and of useless ones, which admitted,
+ *   activated, preempted and delivered nothing,
+ * - the length of plist after each fire and the size of the interference set
+ *   of each admitted packet, as power-of-two histograms,
+ * - the wall time spent admitting new packets (processNewPackets) and updating
+ *   plist (updatePList), and the simulated seconds per wall second.
+ * Many useless fires or long plists point at the traffic shape, while a long
+ * update time at short plists points at the algorithm.
+ *
+ * Once registered, the metrics are readable through JMX as an MBean named
+ * lsi.noc.assessment22:type=SimulatorMetrics,name=<name>, and recorded by the JDK
+ * Flight Recorder as SimulatorEvents. The simulator updates them on its own thread
+ * without synchronization, so a reader sees a recent, not necessarily
+ * consistent, snapshot.
+*/
+
+public class SimulatorMetrics implements SimulatorMetricsMBean {
+
+	protected static final int BUCKETS = 33;
+
+	protected String name;
+	protected ObjectName objectName;
+	protected Runnable periodicHook;
+
+	// Model time and wall time the measurement started at, and the latest model time
+	protected double startModelTime, modelTime;
+	protected long startNanos;
+
+	protected long fires, uselessFires;
+	protected long admittedPackets, deliveredPackets;
+	// Engine counters at the end of the latest fire
+	protected long projections, preemptions;
+	// Wall time in nanoseconds
+	protected long processNewPacketsNanos, updatePListNanos;
+	// Wall times and admissions at the start of the fire in progress and the end of its admission
+	protected long fireStart, admissionEnd, fireAdmissions;
+	// Flight Recorder event of the fire in progress, null if it is not recorded
+	protected SimulatorEvents.Fire fireEvent;
+
+	protected int plistLength, maxPlistLength;
+	protected long plistLengthSum;
+	protected long[] plistLengths;
+	protected int maxInterferenceSize;
+	protected long interferenceSizeSum;
+	protected long[] interferenceSizes;
+
+	/**
+	 * Constructor creates empty metrics.
+	 * @param name name of the simulator, such as the full name of interConnect
+	 */
+	public SimulatorMetrics(String name) {
+		this.name = name;
+		plistLengths = new long[BUCKETS];
+		interferenceSizes = new long[BUCKETS];
+		start(0);
+	}
+
+	/**
+	 * start() clears the metrics and starts measuring at the given model time.
+	 * @param time model time
+	 */
+	public void start(double time) {
+		startModelTime = time;
+		modelTime = time;
+		startNanos = System.nanoTime();
+		fires = 0;
+		uselessFires = 0;
+		admittedPackets = 0;
+		deliveredPackets = 0;
+		projections = -1;
+		preemptions = -1;
+		processNewPacketsNanos = 0;
+		updatePListNanos = 0;
+		plistLength = 0;
+		maxPlistLength = 0;
+		plistLengthSum = 0;
+		maxInterferenceSize = 0;
+		interferenceSizeSum = 0;
+		Arrays.fill(plistLengths, 0);
+		Arrays.fill(interferenceSizes, 0);
+	}
+
+	protected static int bucket(int value) {
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * admitted() counts a packet admitted to the engine.
+	 * @param plistElement
+	 */
+	public void admitted(PListElement plistElement) {
+		int size = plistElement.interference.size();
+
+		admittedPackets++;
+		interferenceSizeSum += size;
+		if (size > maxInterferenceSize)
+			maxInterferenceSize = size;
+		interferenceSizes[bucket(size)]++;
+	}
+
+	/**
+	 * beginFire() starts measuring a fire, before new packets are admitted.
+	 */
+	public void beginFire() {
+		fireEvent = new SimulatorEvents.Fire();
+		if (fireEvent.isEnabled())
+			fireEvent.begin();
+		else
+			fireEvent = null;
+		fireAdmissions = admittedPackets;
+		fireStart = System.nanoTime();
+		admissionEnd = fireStart;
+	}
+
+	/**
+	 * endAdmission() marks the end of the admission of new packets and the start
+	 * of the engine update.
+	 */
+	public void endAdmission() {
+		admissionEnd = System.nanoTime();
+	}
+
+	/**
+	 * endFire() counts a fire, which has updated the engine to the given model time.
+	 * @param engine
+	 * @param time model time
+	 * @param delivered number of packets delivered by the fire
+	 */
+	public void endFire(NocEngine engine, double time, int delivered) {
+		long fireEnd = System.nanoTime();
+		long processNewPacketsNanos = admissionEnd - fireStart;
+		long updatePListNanos = fireEnd - admissionEnd;
+		int admitted = (int)(admittedPackets - fireAdmissions);
+		boolean useless = admitted == 0 && delivered == 0 &&
+						  engine.projections() == projections && engine.preemptions() == preemptions;
+
+		modelTime = time;
+		fires++;
+		if (useless)
+			uselessFires++;
+		deliveredPackets += delivered;
+		projections = engine.projections();
+		preemptions = engine.preemptions();
+		this.processNewPacketsNanos += processNewPacketsNanos;
+		this.updatePListNanos += updatePListNanos;
+
+		plistLength = engine.inFlight();
+		plistLengthSum += plistLength;
+		if (plistLength > maxPlistLength)
+			maxPlistLength = plistLength;
+		plistLengths[bucket(plistLength)]++;
+
+		if (fireEvent != null) {
+			fireEvent.end();
+			if (fireEvent.shouldCommit()) {
+				fireEvent.simulator = name;
+				fireEvent.modelTime = time;
+				fireEvent.admitted = admitted;
+				fireEvent.delivered = delivered;
+				fireEvent.plistLength = plistLength;
+				fireEvent.useless = useless;
+				fireEvent.processNewPackets = processNewPacketsNanos;
+				fireEvent.updatePList = updatePListNanos;
+				fireEvent.commit();
+			}
+			fireEvent = null;
+		}
+	}
+
+	/**
+	 * register() makes the metrics readable through JMX and recorded by the Flight Recorder.
+	 * @throws JMException if the MBean cannot be registered, e.g. under the same name twice
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		objectName = new ObjectName("lsi.noc.assessment22:type=SimulatorMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+
+		periodicHook = new Runnable() {
+			public void run() {
+				SimulatorEvents.Statistics event = new SimulatorEvents.Statistics();
+				event.simulator = name;
+				event.fires = fires;
+				event.uselessFires = uselessFires;
+				event.plistLength = plistLength;
+				event.meanPlistLength = getMeanPlistLength();
+				event.meanInterferenceSize = getMeanInterferenceSize();
+				event.processNewPackets = processNewPacketsNanos;
+				event.updatePList = updatePListNanos;
+				event.speed = getSimulatedSecondsPerWallSecond();
+				event.commit();
+			}
+		};
+		FlightRecorder.addPeriodicEvent(SimulatorEvents.Statistics.class, periodicHook);
+	}
+
+	/**
+	 * unregister() removes the MBean and the Flight Recorder hook of register().
+	 * @throws JMException
+	 */
+	public void unregister() throws JMException {
+		if (periodicHook != null) {
+			FlightRecorder.removePeriodicEvent(periodicHook);
+			periodicHook = null;
+		}
+		if (objectName != null) {
+			ObjectName registered = objectName;
+			objectName = null;
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+		}
+	}
+
+	public long getFires() {
+		return fires;
+	}
+
+	public long getUselessFires() {
+		return uselessFires;
+	}
+
+	public long getAdmittedPackets() {
+		return admittedPackets;
+	}
+
+	public long getDeliveredPackets() {
+		return deliveredPackets;
+	}
+
+	public double getProcessNewPacketsSeconds() {
+		return processNewPacketsNanos / 1e9;
+	}
+
+	public double getUpdatePListSeconds() {
+		return updatePListNanos / 1e9;
+	}
+
+	public double getSimulatedSeconds() {
+		return modelTime - startModelTime;
+	}
+
+	public double getWallSeconds() {
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+
+	public double getSimulatedSecondsPerWallSecond() {
+		double wall = getWallSeconds();
+		return wall > 0 ? getSimulatedSeconds() / wall : 0;
+	}
+
+	public double getMeanPlistLength() {
+		return fires > 0 ? (double)plistLengthSum / fires : 0;
+	}
+
+	public int getMaxPlistLength() {
+		return maxPlistLength;
+	}
+
+	public long[] getPlistLengthHistogram() {
+		return trim(plistLengths);
+	}
+
+	public double getMeanInterferenceSize() {
+		return admittedPackets > 0 ? (double)interferenceSizeSum / admittedPackets : 0;
+	}
+
+	public int getMaxInterferenceSize() {
+		return maxInterferenceSize;
+	}
+
+	public long[] getInterferenceSizeHistogram() {
+		return trim(interferenceSizes);
+	}
+
+	/**
+	 * trim() copies a histogram without its trailing empty buckets.
+	 * @param histogram
+	 * @return counts
+	 */
+	protected static long[] trim(long[] histogram) {
+		int length = histogram.length;
+		while (length > 0 && histogram[length - 1] == 0)
+			length--;
+		return Arrays.copyOf(histogram, length);
+	}
+
+	/**
+	 * histogramString() prints a histogram as "bucket range:count" pairs.
+	 * @param histogram
+	 * @return text
+	 */
+	protected static String histogramString(long[] histogram) {
+		StringBuilder text = new StringBuilder();
+		for (int k = 0; k < histogram.length; k++) {
+			if (histogram[k] == 0)
+				continue;
+			if (text.length() > 0)
+				text.append(' ');
+			if (k <= 1)
+				text.append(k);
+			else
+				text.append(1L << (k - 1)).append('-').append((1L << k) - 1);
+			text.append(':').append(histogram[k]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * toString() summarizes the metrics in a few lines.
+	 * @return text
+	 */
+	public String toString() {
+		return fires + " fires (" + uselessFires + " useless), " +
+			   String.format("%.3f s in processNewPackets, %.3f s in updatePList, %.4g simulated s per wall s",
+							 getProcessNewPacketsSeconds(), getUpdatePListSeconds(),
+							 getSimulatedSecondsPerWallSecond()) + "\n" +
+			   String.format("plist length mean %.2f, max %d: ", getMeanPlistLength(), maxPlistLength) +
+			   histogramString(plistLengths) + "\n" +
+			   String.format("interference set size mean %.2f, max %d: ", getMeanInterferenceSize(),
+							 maxInterferenceSize) +
+			   histogramString(interferenceSizes);
+	}
+}
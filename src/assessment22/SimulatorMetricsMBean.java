@@ -0,0 +1,41 @@
+package lsi.noc.assessment22;
+
+/**
+ * SimulatorMetricsMBean is the management interface of SimulatorMetrics,
+ * through which the metrics of a running simulation are read by JMX clients
+ * such as jconsole. Histograms are counts in power-of-two buckets: bucket 0
+ * counts zeros and bucket k > 0 counts values in [2^(k-1), 2^k).
+*/
+
+public interface SimulatorMetricsMBean {
+
+	long getFires();
+
+	long getUselessFires();
+
+	long getAdmittedPackets();
+
+	long getDeliveredPackets();
+
+	double getProcessNewPacketsSeconds();
+
+	double getUpdatePListSeconds();
+
+	double getSimulatedSeconds();
+
+	double getWallSeconds();
+
+	double getSimulatedSecondsPerWallSecond();
+
+	double getMeanPlistLength();
+
+	int getMaxPlistLength();
+
+	long[] getPlistLengthHistogram();
+
+	double getMeanInterferenceSize();
+
+	int getMaxInterferenceSize();
+
+	long[] getInterferenceSizeHistogram();
+}
@@ -0,0 +1,220 @@
+package lsi.noc.assessment22;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * TaskSet is a table of periodic tasks, each of which is released on a PE
+ * and sends a packet to another PE when its computation is finished.
+ * It describes the same workload as the clocks and record assemblers of
+ * the Ptolemy model, so that the workload can be simulated without Ptolemy.
+ *
+ * Task tables are read from text files with one task per line. Fields are
+ * separated by commas and/or whitespace, and lines starting with '#' are
+ * comments. The fields are:
+ * id, src_x, src_y, x, y, priority, size, period, comptime[, offset]
+ * where (src_x, src_y) is the PE the task runs on, (x, y) is the PE its packet
+ * is sent to, size is the packet size in flits and offset is the time
+ * of the first release (0 if omitted). Times are in seconds.
+*/
+
+public class TaskSet {
+
+	public static class Task {
+		public int id;
+		// PE the task runs on and PE its packet is sent to
+		public int srcX, srcY;
+		public int dstX, dstY;
+		// Packet priority, lower value means higher priority
+		public int priority;
+		// Packet size in flits
+		public int size;
+		public double period;
+		public double compTime;
+		// Time of the first release
+		public double offset;
+
+		public Task() {
+			id = 0;
+			srcX = 0;
+			srcY = 0;
+			dstX = 0;
+			dstY = 0;
+			priority = 0;
+			size = 0;
+			period = 0.0;
+			compTime = 0.0;
+			offset = 0.0;
+		}
+
+		public Task copy() {
+			Task task = new Task();
+			task.id = id;
+			task.srcX = srcX;
+			task.srcY = srcY;
+			task.dstX = dstX;
+			task.dstY = dstY;
+			task.priority = priority;
+			task.size = size;
+			task.period = period;
+			task.compTime = compTime;
+			task.offset = offset;
+			return task;
+		}
+	}
+
+	protected ArrayList<Task> tasks;
+
+	public TaskSet() {
+		tasks = new ArrayList<Task>();
+	}
+
+	/**
+	 * load() reads a task table from a file.
+	 * @param path
+	 * @return task set
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public static TaskSet load(String path) throws IOException {
+		FileReader reader = new FileReader(path);
+		try {
+			return read(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * read() reads a task table.
+	 * @param reader
+	 * @return task set
+	 * @throws IOException if the table cannot be read or is malformed
+	 */
+	public static TaskSet read(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		TaskSet taskSet = new TaskSet();
+		String line;
+		int number = 0;
+
+		while ((line = lines.readLine()) != null) {
+			number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] fields = line.split("[,\\s]+");
+			if (fields.length != 9 && fields.length != 10)
+				throw new IOException("Line " + number + ": expected 9 or 10 fields, found " + fields.length);
+			Task task = new Task();
+			try {
+				task.id = Integer.parseInt(fields[0]);
+				task.srcX = Integer.parseInt(fields[1]);
+				task.srcY = Integer.parseInt(fields[2]);
+				task.dstX = Integer.parseInt(fields[3]);
+				task.dstY = Integer.parseInt(fields[4]);
+				task.priority = Integer.parseInt(fields[5]);
+				task.size = Integer.parseInt(fields[6]);
+				task.period = Double.parseDouble(fields[7]);
+				task.compTime = Double.parseDouble(fields[8]);
+				if (fields.length == 10)
+					task.offset = Double.parseDouble(fields[9]);
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Line " + number + ": " + e.getMessage());
+			}
+			if (task.size < 1 || task.period <= 0 || task.compTime < 0 || task.offset < 0)
+				throw new IOException("Line " + number + ": size and period must be positive, " +
+									  "comptime and offset must not be negative");
+			taskSet.add(task);
+		}
+		return taskSet;
+	}
+
+	/**
+	 * write() writes the task set in binary form, as part of a checkpoint.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(tasks.size());
+		for (Task task : tasks) {
+			output.writeInt(task.id);
+			output.writeInt(task.srcX);
+			output.writeInt(task.srcY);
+			output.writeInt(task.dstX);
+			output.writeInt(task.dstY);
+			output.writeInt(task.priority);
+			output.writeInt(task.size);
+			output.writeDouble(task.period);
+			output.writeDouble(task.compTime);
+			output.writeDouble(task.offset);
+		}
+	}
+
+	/**
+	 * read() reads a task set written by write().
+	 * @param input
+	 * @return task set
+	 * @throws IOException
+	 */
+	public static TaskSet read(DataInput input) throws IOException {
+		TaskSet taskSet = new TaskSet();
+		int count = input.readInt();
+		for (int i = 0; i < count; i++) {
+			Task task = new Task();
+			task.id = input.readInt();
+			task.srcX = input.readInt();
+			task.srcY = input.readInt();
+			task.dstX = input.readInt();
+			task.dstY = input.readInt();
+			task.priority = input.readInt();
+			task.size = input.readInt();
+			task.period = input.readDouble();
+			task.compTime = input.readDouble();
+			task.offset = input.readDouble();
+			taskSet.add(task);
+		}
+		return taskSet;
+	}
+
+	public void add(Task task) {
+		tasks.add(task);
+	}
+
+	public Task get(int index) {
+		return tasks.get(index);
+	}
+
+	public int size() {
+		return tasks.size();
+	}
+
+	/**
+	 * taskCount() returns the number of task ids, i.e. the largest id plus one.
+	 * @return integer number of ids
+	 */
+	public int taskCount() {
+		int count = 0;
+		for (Task task : tasks)
+			count = Math.max(count, task.id + 1);
+		return count;
+	}
+
+	/**
+	 * copy() returns a deep copy of the task set, which can be modified
+	 * independently of this one.
+	 * @return task set
+	 */
+	public TaskSet copy() {
+		TaskSet taskSet = new TaskSet();
+		for (Task task : tasks)
+			taskSet.add(task.copy());
+		return taskSet;
+	}
+}
@@ -0,0 +1,443 @@
+package lsi.noc.assessment22;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * TrafficPattern generates synthetic traffic for the NoC: every PE injects
+ * packets at random intervals to destinations chosen by the pattern.
+ * - uniform: any other PE, chosen uniformly
+ * - transpose: PE (y, x), on square meshes only
+ * - bitcomplement: PE (width - 1 - x, height - 1 - y)
+ * - hotspot: the hotspot PE with probability hotspotFraction, any other PE otherwise
+ * - bursty: uniform destinations, injected in on/off bursts
+ * PEs that would send to themselves (such as the diagonal of transpose) do not inject.
+ *
+ * The load is the number of flits each PE offers per router latency, so
+ * 1 is the bandwidth of a link. Intervals between packets are exponentially
+ * distributed with the mean that gives that load. In the bursty pattern a PE
+ * offers load / dutyCycle during bursts of burstLength packets on average and
+ * is silent between them, so that the average load is the same. Packet sizes are
+ * uniform between minSize and maxSize flits, and priorities uniform between
+ * minPriority and maxPriority, either per packet or fixed for each PE.
+ *
+ * All choices are drawn from a single generator seeded with the given seed,
+ * so a pattern generates the same packets on every run.
+ *
+ * Usage: java lsi.noc.assessment22.TrafficPattern pattern [name=value ...]
+ * simulates the pattern on NocEngine at a range of loads and prints the accepted
+ * load, the latencies and the simulation speed at each of them.
+*/
+
+public class TrafficPattern {
+
+	public static final int UNIFORM = 0;
+	public static final int TRANSPOSE = 1;
+	public static final int BIT_COMPLEMENT = 2;
+	public static final int HOTSPOT = 3;
+	public static final int BURSTY = 4;
+	protected static final String[] NAMES = new String[] {"uniform", "transpose", "bitcomplement", "hotspot", "bursty"};
+
+	/**
+	 * Injection is a packet generated by the pattern.
+	 * The generator reuses the same object for every packet.
+	 */
+	public static class Injection {
+		// Number of the packet, from 0
+		public long id;
+		public double time;
+		public int srcX, srcY;
+		public int dstX, dstY;
+		public int size;
+		public int priority;
+	}
+
+	/**
+	 * Source is the injection state of a PE.
+	 */
+	protected static class Source {
+		int x, y;
+		int priority;
+		// Packets left in the current burst
+		long burstRemaining;
+	}
+
+	protected int pattern;
+	protected int meshWidth, meshHeight;
+	protected double routerLatency;
+	protected double load;
+	protected long seed;
+	protected int minSize, maxSize;
+	protected int minPriority, maxPriority;
+	// Whether each PE sends all of its packets with the same priority
+	protected boolean priorityPerSource;
+	protected int hotspotX, hotspotY;
+	protected double hotspotFraction;
+	// Mean number of packets in a burst, and the fraction of time a PE is bursting
+	protected double burstLength, dutyCycle;
+
+	protected Random random;
+	// Sources keyed by their next injection time
+	protected EventHeap<Source> sources;
+	protected Injection injection;
+	protected long injected;
+
+	/**
+	 * Constructor creates a pattern with packets of 64 flits and priorities 1 to 32.
+	 * @param pattern UNIFORM, TRANSPOSE, BIT_COMPLEMENT, HOTSPOT or BURSTY
+	 * @param meshWidth
+	 * @param meshHeight
+	 * @param routerLatency time for a flit to pass a router
+	 * @param load flits per PE per router latency
+	 * @param seed
+	 */
+	public TrafficPattern(int pattern, int meshWidth, int meshHeight, double routerLatency, double load, long seed) {
+		if (pattern < UNIFORM || pattern > BURSTY)
+			throw new IllegalArgumentException("Unknown traffic pattern " + pattern);
+		if (meshWidth < 1 || meshHeight < 1)
+			throw new IllegalArgumentException("Mesh dimensions must be positive");
+		if (pattern == TRANSPOSE && meshWidth != meshHeight)
+			throw new IllegalArgumentException("Transpose traffic needs a square mesh");
+		if (!(routerLatency > 0) || !(load > 0))
+			throw new IllegalArgumentException("Router latency and load must be positive");
+
+		this.pattern = pattern;
+		this.meshWidth = meshWidth;
+		this.meshHeight = meshHeight;
+		this.routerLatency = routerLatency;
+		this.load = load;
+		this.seed = seed;
+		minSize = 64;
+		maxSize = 64;
+		minPriority = 1;
+		maxPriority = 32;
+		priorityPerSource = false;
+		hotspotX = meshWidth / 2;
+		hotspotY = meshHeight / 2;
+		hotspotFraction = 0.2;
+		burstLength = 16;
+		dutyCycle = 0.25;
+		injection = new Injection();
+		sources = new EventHeap<Source>();
+		reset();
+	}
+
+	/**
+	 * valueOf() returns the pattern with the given name.
+	 * @param name
+	 * @return pattern
+	 * @throws IllegalArgumentException if there is no such pattern
+	 */
+	public static int valueOf(String name) {
+		for (int i = 0; i < NAMES.length; i++)
+			if (NAMES[i].equalsIgnoreCase(name))
+				return i;
+		throw new IllegalArgumentException("Unknown traffic pattern " + name);
+	}
+
+	public static String name(int pattern) {
+		return NAMES[pattern];
+	}
+
+	/**
+	 * setSize() sets the range of packet sizes and restarts the pattern.
+	 * @param minSize flits
+	 * @param maxSize flits
+	 */
+	public void setSize(int minSize, int maxSize) {
+		if (minSize < 1 || maxSize < minSize)
+			throw new IllegalArgumentException("Packet sizes must be positive and ordered");
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		reset();
+	}
+
+	/**
+	 * setPriorities() sets the range of priorities and restarts the pattern.
+	 * @param minPriority highest priority
+	 * @param maxPriority lowest priority
+	 * @param perSource whether each PE sends all of its packets with the same priority
+	 */
+	public void setPriorities(int minPriority, int maxPriority, boolean perSource) {
+		if (maxPriority < minPriority)
+			throw new IllegalArgumentException("Priorities must be ordered");
+		this.minPriority = minPriority;
+		this.maxPriority = maxPriority;
+		priorityPerSource = perSource;
+		reset();
+	}
+
+	/**
+	 * setHotspot() sets the hotspot PE and restarts the pattern.
+	 * @param x
+	 * @param y
+	 * @param fraction fraction of the packets sent to the hotspot
+	 */
+	public void setHotspot(int x, int y, double fraction) {
+		if (x < 0 || x >= meshWidth || y < 0 || y >= meshHeight)
+			throw new IllegalArgumentException("Hotspot (" + x + ", " + y + ") is outside of the mesh");
+		if (!(fraction >= 0 && fraction <= 1))
+			throw new IllegalArgumentException("Hotspot fraction must be between 0 and 1");
+		hotspotX = x;
+		hotspotY = y;
+		hotspotFraction = fraction;
+		reset();
+	}
+
+	/**
+	 * setBursts() sets the bursts of the bursty pattern and restarts the pattern.
+	 * @param length mean number of packets in a burst
+	 * @param dutyCycle fraction of time a PE is bursting
+	 */
+	public void setBursts(double length, double dutyCycle) {
+		if (!(length >= 1) || !(dutyCycle > 0 && dutyCycle <= 1))
+			throw new IllegalArgumentException("Bursts must have a packet and a duty cycle between 0 and 1");
+		burstLength = length;
+		this.dutyCycle = dutyCycle;
+		reset();
+	}
+
+	/**
+	 * reset() restarts the pattern from time 0 with its seed.
+	 */
+	public void reset() {
+		random = new Random(seed);
+		sources.clear();
+		injected = 0;
+		for (int x = 0; x < meshWidth; x++)
+			for (int y = 0; y < meshHeight; y++) {
+				if (!injects(x, y))
+					continue;
+				Source source = new Source();
+				source.x = x;
+				source.y = y;
+				source.priority = priority();
+				source.burstRemaining = 0;
+				sources.push(interval(source, 0), source);
+			}
+	}
+
+	/**
+	 * injects() tells whether a PE has any destination other than itself.
+	 */
+	protected boolean injects(int x, int y) {
+		switch (pattern) {
+		case TRANSPOSE:
+			return x != y;
+		case BIT_COMPLEMENT:
+			return x != meshWidth - 1 - x || y != meshHeight - 1 - y;
+		default:
+			return meshWidth * meshHeight > 1;
+		}
+	}
+
+	/**
+	 * interval() returns the time to the next packet of a source, starting
+	 * a new burst after an idle period in the bursty pattern.
+	 * @param source
+	 * @param time current time
+	 * @return time of the next packet
+	 */
+	protected double interval(Source source, double time) {
+		double meanSize = (minSize + maxSize) / 2.0;
+		double meanInterval = meanSize * routerLatency / load;
+		if (pattern != BURSTY)
+			return time + exponential(meanInterval);
+
+		meanInterval *= dutyCycle;
+		if (source.burstRemaining == 0) {
+			// Burst lengths are geometric with the given mean
+			source.burstRemaining = burstLength == 1 ? 1 :
+				1 + (long)Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - 1 / burstLength));
+			// Idle periods keep the average load
+			if (dutyCycle < 1)
+				time += exponential(burstLength * meanInterval * (1 - dutyCycle) / dutyCycle);
+		}
+		source.burstRemaining--;
+		return time + exponential(meanInterval);
+	}
+
+	protected double exponential(double mean) {
+		return -Math.log(1 - random.nextDouble()) * mean;
+	}
+
+	protected int priority() {
+		return minPriority + random.nextInt(maxPriority - minPriority + 1);
+	}
+
+	/**
+	 * nextTime() returns the time of the next packet.
+	 * @return time or positive infinity if no PE injects
+	 */
+	public double nextTime() {
+		return sources.peekKey();
+	}
+
+	/**
+	 * next() generates the next packet. The returned object is reused by the next call.
+	 * @return packet
+	 */
+	public Injection next() {
+		double time = sources.peekKey();
+		Source source = sources.pop();
+		Injection packet = injection;
+
+		packet.id = injected++;
+		packet.time = time;
+		packet.srcX = source.x;
+		packet.srcY = source.y;
+		packet.size = minSize + random.nextInt(maxSize - minSize + 1);
+		packet.priority = priorityPerSource ? source.priority : priority();
+		switch (pattern) {
+		case TRANSPOSE:
+			packet.dstX = source.y;
+			packet.dstY = source.x;
+			break;
+		case BIT_COMPLEMENT:
+			packet.dstX = meshWidth - 1 - source.x;
+			packet.dstY = meshHeight - 1 - source.y;
+			break;
+		case HOTSPOT:
+			if ((source.x != hotspotX || source.y != hotspotY) && random.nextDouble() < hotspotFraction) {
+				packet.dstX = hotspotX;
+				packet.dstY = hotspotY;
+			}
+			else
+				uniformDestination(packet, source);
+			break;
+		default:
+			uniformDestination(packet, source);
+		}
+		sources.push(interval(source, time), source);
+		return packet;
+	}
+
+	/**
+	 * uniformDestination() sends a packet to any PE other than its source.
+	 * @param packet
+	 * @param source
+	 */
+	protected void uniformDestination(Injection packet, Source source) {
+		int destination = random.nextInt(meshWidth * meshHeight - 1);
+		if (destination >= source.x * meshHeight + source.y)
+			destination++;
+		packet.dstX = destination / meshHeight;
+		packet.dstY = destination % meshHeight;
+	}
+
+	/**
+	 * injected() returns the number of packets generated so far.
+	 * @return integer number of packets
+	 */
+	public long injected() {
+		return injected;
+	}
+
+	public double load() {
+		return load;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java lsi.noc.assessment22.TrafficPattern pattern [name=value ...]");
+			System.exit(1);
+		}
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		parameters.put("loads", "0.01,0.02,0.05,0.1,0.2,0.3,0.5,0.7,1.0");
+		parameters.put("duration", "1e-3");
+		parameters.put("period", "1e-8");
+		parameters.put("meshWidth", "4");
+		parameters.put("meshHeight", "4");
+		parameters.put("minSize", "64");
+		parameters.put("maxSize", "64");
+		parameters.put("minPriority", "1");
+		parameters.put("maxPriority", "32");
+		parameters.put("priorityPerSource", "false");
+		parameters.put("hotspotX", "-1");
+		parameters.put("hotspotY", "-1");
+		parameters.put("hotspotFraction", "0.2");
+		parameters.put("burstLength", "16");
+		parameters.put("dutyCycle", "0.25");
+		parameters.put("seed", "1");
+		parameters.put("incrementalUpdate", "true");
+		parameters.put("coalesceFirings", "false");
+		for (int i = 1; i < args.length; i++) {
+			String[] pair = args[i].split("=", 2);
+			if (pair.length != 2 || !parameters.containsKey(pair[0]))
+				throw new IllegalArgumentException("Unknown parameter " + args[i]);
+			parameters.put(pair[0], pair[1]);
+		}
+
+		int pattern = valueOf(args[0]);
+		int width = Integer.parseInt(parameters.get("meshWidth"));
+		int height = Integer.parseInt(parameters.get("meshHeight"));
+		double period = Double.parseDouble(parameters.get("period"));
+		double duration = Double.parseDouble(parameters.get("duration"));
+		// Arbitration takes 3 cycles per router, as in interConnect
+		double routerLatency = period * 3;
+
+		System.out.println("load\tinjected\tdelivered\taccepted\tavg_latency\tp99_latency\tmax_latency\t" +
+						   "peak_flows\tupdates\twall ms\tpackets/s\tmodel s/wall s");
+		for (String value : parameters.get("loads").split(",")) {
+			TrafficPattern traffic = new TrafficPattern(pattern, width, height, routerLatency,
+														Double.parseDouble(value.trim()),
+														Long.parseLong(parameters.get("seed")));
+			traffic.setSize(Integer.parseInt(parameters.get("minSize")), Integer.parseInt(parameters.get("maxSize")));
+			traffic.setPriorities(Integer.parseInt(parameters.get("minPriority")),
+								  Integer.parseInt(parameters.get("maxPriority")),
+								  Boolean.parseBoolean(parameters.get("priorityPerSource")));
+			if (pattern == HOTSPOT) {
+				int x = Integer.parseInt(parameters.get("hotspotX"));
+				int y = Integer.parseInt(parameters.get("hotspotY"));
+				traffic.setHotspot(x < 0 ? width / 2 : x, y < 0 ? height / 2 : y,
+								   Double.parseDouble(parameters.get("hotspotFraction")));
+			}
+			if (pattern == BURSTY)
+				traffic.setBursts(Double.parseDouble(parameters.get("burstLength")),
+								  Double.parseDouble(parameters.get("dutyCycle")));
+			NocEngine engine = new NocEngine(width, height, routerLatency,
+											 Boolean.parseBoolean(parameters.get("incrementalUpdate")),
+											 Boolean.parseBoolean(parameters.get("coalesceFirings")));
+			engine.setTimeResolution(period);
+
+			LatencyHistogram latencies = new LatencyHistogram();
+			double latencySum = 0;
+			long delivered = 0, deliveredFlits = 0;
+			int peakFlows = 0;
+			long start = System.nanoTime();
+			while (true) {
+				// Packets are injected at the start of the cycle they are generated in
+				double injection = Math.ceil(traffic.nextTime() / period) * period;
+				double next = Math.min(injection, engine.nextWakeup());
+				if (next >= duration)
+					break;
+				while (Math.ceil(traffic.nextTime() / period) * period <= next) {
+					Injection packet = traffic.next();
+					engine.admit(packet.srcX, packet.srcY, packet.dstX, packet.dstY,
+								 packet.priority, packet.size, next, null);
+				}
+				peakFlows = Math.max(peakFlows, engine.inFlight());
+				engine.update(next);
+				for (PListElement plistElement : engine.delivered()) {
+					double latency = next - plistElement.commStartTime;
+					latencies.record(latency);
+					latencySum += latency;
+					delivered++;
+					deliveredFlits += plistElement.size;
+				}
+			}
+			double wall = (System.nanoTime() - start) / 1e9;
+
+			// Flits delivered per PE per router latency
+			double accepted = deliveredFlits / (width * height * (duration / routerLatency));
+			System.out.println(value.trim() + "\t" + traffic.injected() + "\t" + delivered + "\t" +
+							   String.format("%.4f\t%.8f\t%.8f\t%.8f", accepted,
+											 delivered == 0 ? Double.NaN : latencySum / delivered,
+											 latencies.percentile(99),
+											 delivered == 0 ? Double.NaN : latencies.maximum()) + "\t" +
+							   peakFlows + "\t" + engine.updates() + "\t" + Math.round(wall * 1e3) + "\t" +
+							   Math.round(traffic.injected() / wall) + "\t" +
+							   String.format("%.3g", duration / wall));
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package lsi.noc.assessment22;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
+
+/**
+ * injector actor releases the tasks of a task table, replacing the clock and
+ * record assembler composites of the tasks in the model. The task table is read
+ * from taskFile (see TaskSet). Tasks are released periodically from their offsets,
+ * or, if releaseTrace is set, at the times recorded in that file, which has a
+ * "time id" pair per line ('#' starts a comment) in the order of time.
+ * The trace is read as the simulation goes, so it may be of any length.
+ * Tasks released at the same time are released in the order of their ids,
+ * as in HeadlessSimulation.
+ *
+ * The packet of a released task is sent as a PacketToken on the output port
+ * of the PE the task runs on, with index x * meshHeight + y, which is connected
+ * to the trigger port of the producer of that PE. With communicationOnly set,
+ * the packet is sent as if its computation had finished at the release, and the
+ * output ports are connected to the input ports of interConnect instead.
+*/
+
+@SuppressWarnings("serial")
+public class injector extends TypedAtomicActor {
+
+	// An output port for each PE in the mesh
+	protected TypedIOPort[] output;
+
+	protected Parameter meshWidthParameter, meshHeightParameter;
+	protected int meshWidth, meshHeight;
+	protected StringParameter taskFileParameter, releaseTraceParameter;
+	protected Parameter communicationOnlyParameter;
+	protected boolean communicationOnly;
+
+	protected TaskSet tasks;
+	// Tasks indexed by id
+	protected TaskSet.Task[] tasksById;
+	// Periodic releases keyed by time, used without a release trace
+	protected EventHeap<TaskSet.Task> releases;
+	// Release trace and the next release read from it
+	protected BufferedReader trace;
+	protected int traceLine;
+	protected double nextTraceTime;
+	protected TaskSet.Task nextTraceTask;
+	// Tasks due at the current time
+	protected ArrayList<TaskSet.Task> dueTasks;
+
+	/**
+	 * Constructor sets up parameters and ports.
+	 * @param container
+	 * @param name
+	 * @throws NameDuplicationException
+	 * @throws IllegalActionException
+	 */
+	public injector(CompositeEntity container, String name)
+	throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+
+		taskFileParameter = new StringParameter(this, "taskFile");
+		taskFileParameter.setExpression("");
+
+		releaseTraceParameter = new StringParameter(this, "releaseTrace");
+		releaseTraceParameter.setExpression("");
+
+		communicationOnlyParameter = new Parameter(this, "communicationOnly");
+		communicationOnlyParameter.setTypeEquals(BaseType.BOOLEAN);
+		communicationOnlyParameter.setExpression("false");
+
+		meshWidthParameter = new Parameter(this, "meshWidth");
+		meshWidthParameter.setTypeEquals(BaseType.INT);
+		meshWidthParameter.setExpression("4");
+
+		meshHeightParameter = new Parameter(this, "meshHeight");
+		meshHeightParameter.setTypeEquals(BaseType.INT);
+		meshHeightParameter.setExpression("4");
+
+		output = new TypedIOPort[0];
+		dueTasks = new ArrayList<TaskSet.Task>();
+		meshWidth = 4;
+		meshHeight = 4;
+		createPorts();
+	}
+
+	/**
+	 * attributeChanged() recreates ports when the mesh dimensions change.
+	 * @param attribute
+	 * @throws IllegalActionException
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if (attribute == meshWidthParameter || attribute == meshHeightParameter) {
+			int value = ((IntToken)((Parameter)attribute).getToken()).intValue();
+			if (value < 1)
+				throw new IllegalActionException(this, "Mesh dimensions must be positive");
+
+			if (attribute == meshWidthParameter)
+				meshWidth = value;
+			else
+				meshHeight = value;
+			try {
+				createPorts();
+			}
+			catch (NameDuplicationException e) {
+				throw new IllegalActionException(this, e, "Cannot create ports");
+			}
+		}
+		else if (attribute == communicationOnlyParameter)
+			communicationOnly = ((BooleanToken)communicationOnlyParameter.getToken()).booleanValue();
+		else
+			super.attributeChanged(attribute);
+	}
+
+	/**
+	 * createPorts() makes sure there is an output port for each PE in the mesh.
+	 * @throws IllegalActionException
+	 * @throws NameDuplicationException
+	 */
+	protected void createPorts() throws IllegalActionException, NameDuplicationException {
+		int count = meshWidth * meshHeight;
+		TypedIOPort[] newOutput = new TypedIOPort[count];
+
+		for (int i = 0; i < Math.max(count, output.length); i++) {
+			if (i < output.length && i < count)
+				newOutput[i] = output[i];
+			else if (i < count) {
+				newOutput[i] = new TypedIOPort(this, "output" + Integer.toString(i), false, true);
+				// Packets are PacketTokens, which are of the general type
+				newOutput[i].setTypeEquals(BaseType.GENERAL);
+			}
+			else
+				output[i].setContainer(null);
+		}
+		output = newOutput;
+	}
+
+	/**
+	 * initialize() reads the task table, opens the release trace
+	 * and requests a firing at the first release.
+	 * @throws IllegalActionException
+	 */
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+
+		String path = taskFileParameter.stringValue();
+		if (path.isEmpty())
+			throw new IllegalActionException(this, "taskFile is not set");
+		try {
+			tasks = TaskSet.load(path);
+		}
+		catch (IOException e) {
+			throw new IllegalActionException(this, e, "Cannot read task table " + path);
+		}
+		tasksById = new TaskSet.Task[tasks.taskCount()];
+		for (int i = 0; i < tasks.size(); i++) {
+			TaskSet.Task task = tasks.get(i);
+			if (task.id < 0)
+				throw new IllegalActionException(this, "Task id " + task.id + " is negative");
+			if (task.srcX < 0 || task.srcX >= meshWidth || task.srcY < 0 || task.srcY >= meshHeight)
+				throw new IllegalActionException(this, "Task " + task.id + " is mapped outside of the mesh");
+			tasksById[task.id] = task;
+		}
+
+		closeTrace();
+		releases = null;
+		path = releaseTraceParameter.stringValue();
+		if (path.isEmpty()) {
+			releases = new EventHeap<TaskSet.Task>();
+			for (int i = 0; i < tasks.size(); i++)
+				releases.push(tasks.get(i).offset, tasks.get(i));
+		}
+		else {
+			try {
+				trace = new BufferedReader(new FileReader(path));
+			}
+			catch (IOException e) {
+				throw new IllegalActionException(this, e, "Cannot open release trace " + path);
+			}
+			traceLine = 0;
+			nextTraceTime = Double.NEGATIVE_INFINITY;
+			readRelease();
+		}
+		requestNextFiring();
+	}
+
+	/**
+	 * fire() releases the tasks due at the current time.
+	 * @throws IllegalActionException
+	 */
+	public void fire() throws IllegalActionException {
+		super.fire();
+
+		Time modelTime = getDirector().getModelTime();
+		double now = modelTime.getDoubleValue();
+		if (releases != null) {
+			while (due(releases.peekKey(), modelTime)) {
+				TaskSet.Task task = releases.pop();
+				dueTasks.add(task);
+				releases.push(now + task.period, task);
+			}
+		}
+		else {
+			while (nextTraceTask != null && due(nextTraceTime, modelTime)) {
+				dueTasks.add(nextTraceTask);
+				readRelease();
+			}
+		}
+		// The heap gives tasks due at the same time in no particular order
+		if (dueTasks.size() > 1)
+			Collections.sort(dueTasks, HeadlessSimulation.ID_ORDER);
+		for (int i = 0; i < dueTasks.size(); i++)
+			release(dueTasks.get(i), now);
+		dueTasks.clear();
+		requestNextFiring();
+	}
+
+	/**
+	 * due() checks whether a release is due, comparing the times at the resolution
+	 * of the director, at which the actor is fired.
+	 * @param time release time
+	 * @param modelTime current time
+	 * @return boolean showing whether the release is due
+	 * @throws IllegalActionException
+	 */
+	protected boolean due(double time, Time modelTime) throws IllegalActionException {
+		return time != Double.POSITIVE_INFINITY && new Time(getDirector(), time).compareTo(modelTime) <= 0;
+	}
+
+	/**
+	 * release() sends the packet of a released task to the PE the task runs on.
+	 * @param task
+	 * @param now release time
+	 * @throws IllegalActionException
+	 */
+	protected void release(TaskSet.Task task, double now) throws IllegalActionException {
+		PacketToken packet = new PacketToken();
+		packet.id = task.id;
+		packet.x = task.dstX;
+		packet.y = task.dstY;
+		packet.priority = task.priority;
+		packet.size = task.size;
+		packet.period = task.period;
+		packet.compTime = task.compTime;
+		packet.releaseTime = now;
+		if (communicationOnly)
+			packet.compFinishTime = now;
+		output[task.srcX * meshHeight + task.srcY].send(0, packet);
+	}
+
+	/**
+	 * readRelease() reads the next release from the trace.
+	 * nextTraceTask is null at the end of the trace.
+	 * @throws IllegalActionException if the trace is malformed
+	 */
+	protected void readRelease() throws IllegalActionException {
+		nextTraceTask = null;
+		try {
+			String line;
+			while ((line = trace.readLine()) != null) {
+				traceLine++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("[\\s,]+");
+				if (fields.length != 2)
+					throw new IllegalActionException(this, "Line " + traceLine + " of the release trace has " +
+													 fields.length + " fields instead of 2");
+				double time = Double.parseDouble(fields[0]);
+				int id = Integer.parseInt(fields[1]);
+				if (id < 0 || id >= tasksById.length || tasksById[id] == null)
+					throw new IllegalActionException(this, "Line " + traceLine + " of the release trace " +
+													 "refers to unknown task " + id);
+				if (time < nextTraceTime)
+					throw new IllegalActionException(this, "Line " + traceLine + " of the release trace " +
+													 "goes back in time");
+				nextTraceTime = time;
+				nextTraceTask = tasksById[id];
+				return;
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalActionException(this, e, "Cannot read release trace");
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalActionException(this, e, "Line " + traceLine + " of the release trace is malformed");
+		}
+		closeTrace();
+	}
+
+	/**
+	 * requestNextFiring() asks the director to fire the actor at the next release.
+	 * @throws IllegalActionException
+	 */
+	protected void requestNextFiring() throws IllegalActionException {
+		double next = releases != null ? releases.peekKey() :
+					  nextTraceTask != null ? nextTraceTime : Double.POSITIVE_INFINITY;
+		if (next != Double.POSITIVE_INFINITY)
+			getDirector().fireAt(this, new Time(getDirector(), next));
+	}
+
+	protected void closeTrace() {
+		if (trace == null)
+			return;
+		try {
+			trace.close();
+		}
+		catch (IOException e) {
+			// Nothing is lost, the trace has been read
+		}
+		trace = null;
+	}
+
+	/**
+	 * wrapup() closes the release trace.
+	 * @throws IllegalActionException
+	 */
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+
+		closeTrace();
+	}
+}
@@ -1,28 +1,52 @@
 package lsi.noc.assessment22;
 
-import java.util.Vector;
+import java.io.IOException;
+import java.util.ArrayList;
+import javax.management.JMException;
 
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
-import ptolemy.data.RecordToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
-import ptolemy.data.type.RecordType;
-import ptolemy.data.type.Type;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
 
 /**
  * @version 1.0
  * @author Naums Mogers
  *
  * interConnect actor implements a transaction-level simulation of 
- * the task communication on the NoC. Algorithms are based on [1].
+ * the task communication on the NoC. Algorithms are based on [1] and
+ * are implemented by NocEngine; the actor only decodes incoming packets,
+ * sends delivered ones out and schedules its firings.
+ * If traceFile is set, the flow events of the engine are recorded into
+ * it as an EventTrace. If countersFile is set, the busy time, preemptions and
+ * peak flows of every link and router are counted in LinkCounters and saved
+ * into it as a table at wrapup. With metrics set, the actor measures itself in
+ * SimulatorMetrics - fires, plist length, interference set sizes and wall time -
+ * which are readable through JMX and the Flight Recorder while the model runs
+ * and printed at wrapup.
+ *
+ * With fastForward set, the actor is not fired at every wakeup of the engine.
+ * The firings it would request are recorded instead, and after a firing without new
+ * packets the engine is fast-forwarded through them - the cascade of completions and
+ * reactivations - up to the first one which delivers packets, as if no packet arrived
+ * in the meantime. The actor is fired only at the time of that delivery to send the
+ * packets out. If a packet arrives before it, the engine is rolled back to a savepoint
+ * and updated at the recorded firings before the arrival instead, so the engine is
+ * updated and the packets are sent at the same times as without fastForward. After
+ * an arrival, the next recorded firing is requested as usual, so that bursts of packets
+ * are not fast-forwarded only to be rolled back. Fast-forward is not used while the
+ * flow events are traced or the links counted.
  * 
  * References:
  * [1] Leandro Soares Indrusiak, James Harbin, Osmar Marchi dos Santos: Fast Simulation of Networks-on-Chip
@@ -36,8 +60,13 @@ public class interConnect extends TypedAtomicActor {
 	protected TypedIOPort[] input;
 	protected TypedIOPort[] output;
 	
-	// Priority-sorted resizable vector of packets
-	protected Vector<PListElement> plist;
+	// Mesh dimensions - the number of routers along X and Y.
+	// PE (x, y) is connected to ports with index x * meshHeight + y.
+	protected Parameter meshWidthParameter, meshHeightParameter;
+	protected int meshWidth, meshHeight;
+	
+	// Simulation of the packets in transmission
+	protected NocEngine engine;
 	
 	// XY coordinates array for converting to different PE indexing mode
 	// Second indexing mode is useful to choose output/input ports
@@ -52,10 +81,44 @@ public class interConnect extends TypedAtomicActor {
 	// Same as arbitration cycles, but in seconds
 	protected double routerLatency;
 	
-	// Variables for specifying output port type
-	protected String[] labels;
-	protected Type[] types;
-	protected RecordType outputPacketType;
+	// Incremental mode - on each update only the elements whose state may
+	// have changed are visited instead of the whole plist
+	protected Parameter incrementalParameter;
+	// Coalesced firing - projected completion times are kept in a calendar
+	// and only the earliest valid one is requested from the director
+	protected Parameter coalesceParameter;
+	
+	// File the flow events are traced into, none if empty
+	protected StringParameter traceFileParameter;
+	protected EventTrace trace;
+	// File the link and router counters are saved into, none if empty
+	protected StringParameter countersFileParameter;
+	// Measurement of the simulator itself, null if it is not measured
+	protected Parameter metricsParameter;
+	protected SimulatorMetrics metrics;
+	// Number of packets sent by the firing in progress
+	protected int sent;
+	
+	// Fast-forward to the next delivery between the firings
+	protected Parameter fastForwardParameter;
+	protected boolean fastForward;
+	// Firings which would be requested from the director without fast-forward and the
+	// time of the latest of them; they are replayed on the engine instead
+	protected EventHeap<Object> firings;
+	protected double replayedFiring;
+	// Firings before the fast-forward, null if the engine has not been fast-forwarded,
+	// and the time of the latest of them; the engine itself keeps a savepoint
+	protected EventHeap<Object> speculation;
+	protected double speculationReplayedFiring;
+	// Elements delivered at the end of the fast-forward and the time of their delivery,
+	// positive infinity if the engine has become idle without delivering anything
+	protected ArrayList<PListElement> speculated;
+	protected double speculatedTime;
+	
+	// Time of the latest firing requested from the director
+	protected double requestedFiring;
+	// Number of firings requested from the director
+	protected long firingRequests;
     
 	/**
 	 * Constructor sets up parameters and ports
@@ -72,24 +135,98 @@ public class interConnect extends TypedAtomicActor {
 		periodParameter.setTypeEquals(BaseType.DOUBLE);
 		periodParameter.setExpression("period");
 		
-		// Output record fields
-		labels = new String[] {"id", "priority", "size", "src_x", "src_y", "x", "y", "period",  
-							   "releasetime", "comptime", "compfinishtime", "commfinishtime", "commstarttime"};
-		// Output record field types
-	    types = new Type[] {BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT, 
-	    					BaseType.INT, BaseType.INT, BaseType.INT, BaseType.DOUBLE,
-    						BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, 
-    						BaseType.DOUBLE, BaseType.DOUBLE };
-	    // Output record type
-	    outputPacketType = new RecordType(labels, types);
+		incrementalParameter = new Parameter(this, "incrementalUpdate");
+		incrementalParameter.setTypeEquals(BaseType.BOOLEAN);
+		incrementalParameter.setExpression("true");
+		
+		coalesceParameter = new Parameter(this, "coalesceFirings");
+		coalesceParameter.setTypeEquals(BaseType.BOOLEAN);
+		coalesceParameter.setExpression("false");
+		
+		traceFileParameter = new StringParameter(this, "traceFile");
+		traceFileParameter.setExpression("");
+		
+		countersFileParameter = new StringParameter(this, "countersFile");
+		countersFileParameter.setExpression("");
+		
+		metricsParameter = new Parameter(this, "metrics");
+		metricsParameter.setTypeEquals(BaseType.BOOLEAN);
+		metricsParameter.setExpression("false");
+		
+		fastForwardParameter = new Parameter(this, "fastForward");
+		fastForwardParameter.setTypeEquals(BaseType.BOOLEAN);
+		fastForwardParameter.setExpression("false");
+		
+		meshWidthParameter = new Parameter(this, "meshWidth");
+		meshWidthParameter.setTypeEquals(BaseType.INT);
+		meshWidthParameter.setExpression("4");
+		
+		meshHeightParameter = new Parameter(this, "meshHeight");
+		meshHeightParameter.setTypeEquals(BaseType.INT);
+		meshHeightParameter.setExpression("4");
+		
+		input = new TypedIOPort[0];
+		output = new TypedIOPort[0];
+		meshWidth = 4;
+		meshHeight = 4;
+		createPorts();
+	}
+	
+	/**
+	 * attributeChanged() recreates ports when the mesh dimensions change.
+	 * @param attribute
+	 * @throws IllegalActionException
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if (attribute == meshWidthParameter || attribute == meshHeightParameter) {
+			int value = ((IntToken)((Parameter)attribute).getToken()).intValue();
+			if (value < 1)
+				throw new IllegalActionException(this, "Mesh dimensions must be positive");
+			
+			if (attribute == meshWidthParameter)
+				meshWidth = value;
+			else
+				meshHeight = value;
+			try {
+				createPorts();
+			}
+			catch (NameDuplicationException e) {
+				throw new IllegalActionException(this, e, "Cannot create ports");
+			}
+		}
+		else
+			super.attributeChanged(attribute);
+	}
+	
+	/**
+	 * createPorts() makes sure there is an input and output port for each PE
+	 * in the mesh, and removes ports of PEs that are no longer in the mesh.
+	 * @throws IllegalActionException
+	 * @throws NameDuplicationException
+	 */
+	protected void createPorts() throws IllegalActionException, NameDuplicationException {
+		int count = meshWidth * meshHeight;
+		TypedIOPort[] newInput = new TypedIOPort[count];
+		TypedIOPort[] newOutput = new TypedIOPort[count];
 		
-		input = new TypedIOPort[16];
-		output = new TypedIOPort[16];
-		for(int i=0; i<16; i++) {
-			input[i]= new TypedIOPort(this, "input" + Integer.toString(i), true, false);
-			output[i]= new TypedIOPort(this, "output" + Integer.toString(i), false, true);
-			output[i].setTypeEquals(outputPacketType);
+		for (int i = 0; i < Math.max(count, input.length); i++) {
+			if (i < input.length && i < count) {
+				newInput[i] = input[i];
+				newOutput[i] = output[i];
+			}
+			else if (i < count) {
+				newInput[i] = new TypedIOPort(this, "input" + Integer.toString(i), true, false);
+				newOutput[i] = new TypedIOPort(this, "output" + Integer.toString(i), false, true);
+				// Packets are PacketTokens, which are of the general type
+				newOutput[i].setTypeEquals(BaseType.GENERAL);
+			}
+			else {
+				input[i].setContainer(null);
+				output[i].setContainer(null);
+			}
 		}
+		input = newInput;
+		output = newOutput;
 	}
 	
 	/**
@@ -98,21 +235,59 @@ public class interConnect extends TypedAtomicActor {
 	 */
 	public void initialize() throws IllegalActionException {
 		super.initialize();
-
-		// Construct an empty plist
-		plist = new Vector<PListElement>();
 		
-		xyCoors = new int[][] {{0,0}, {0,1}, {0,2}, {0,3}, 
-							   {1,0}, {1,1}, {1,2}, {1,3}, 
-							   {2,0}, {2,1}, {2,2}, {2,3}, 
-							   {3,0}, {3,1}, {3,2}, {3,3}};
+		xyCoors = new int[meshWidth * meshHeight][2];
+		for (int i = 0; i < xyCoors.length; i++) {
+			xyCoors[i][0] = i / meshHeight;
+			xyCoors[i][1] = i % meshHeight;
+		}
 
 		// Read period value from the environment
 		period = ((DoubleToken)periodParameter.getToken()).doubleValue();
 		
 		// Time for a packet to pass a single router
 		routerLatency = period * arbitrationCycles;
-
+		
+		engine = new NocEngine(meshWidth, meshHeight, routerLatency,
+							   ((BooleanToken)incrementalParameter.getToken()).booleanValue(),
+							   ((BooleanToken)coalesceParameter.getToken()).booleanValue());
+		engine.setTimeResolution(getDirector().getTimeResolution());
+		
+		String path = traceFileParameter.stringValue();
+		trace = null;
+		if (!path.isEmpty()) {
+			try {
+				trace = new EventTrace(path);
+			}
+			catch (IOException e) {
+				throw new IllegalActionException(this, e, "Cannot create trace " + path);
+			}
+			engine.setTrace(trace);
+		}
+		if (!countersFileParameter.stringValue().isEmpty())
+			engine.setCounters(new LinkCounters(meshWidth, meshHeight));
+		requestedFiring = Double.NEGATIVE_INFINITY;
+		firingRequests = 0;
+		
+		fastForward = ((BooleanToken)fastForwardParameter.getToken()).booleanValue() &&
+					  trace == null && engine.counters() == null;
+		firings = new EventHeap<Object>();
+		replayedFiring = Double.NEGATIVE_INFINITY;
+		speculation = null;
+		speculated = new ArrayList<PListElement>();
+		speculatedTime = Double.POSITIVE_INFINITY;
+		
+		unregisterMetrics();
+		if (((BooleanToken)metricsParameter.getToken()).booleanValue()) {
+			metrics = new SimulatorMetrics(getFullName());
+			metrics.start(getDirector().getModelTime().getDoubleValue());
+			try {
+				metrics.register();
+			}
+			catch (JMException e) {
+				throw new IllegalActionException(this, e, "Cannot register metrics");
+			}
+		}
 	}
 
 	/**
@@ -121,267 +296,319 @@ public class interConnect extends TypedAtomicActor {
 	 * @throws IllegalActionException
 	 */
 	public void fire() throws IllegalActionException {
-		processNewPackets();
-		// Doesn't matter how many packets we received, we can update just once
-		updatePList();
+		if (metrics != null)
+			metrics.beginFire();
+		sent = 0;
+		if (fastForward && !hasNewPackets())
+			fireForward();
+		else {
+			if (fastForward)
+				endSpeculation();
+			processNewPackets();
+			if (metrics != null)
+				metrics.endAdmission();
+			// Doesn't matter how many packets we received, we can update just once
+			update();
+		}
+		if (metrics != null)
+			metrics.endFire(engine, getDirector().getModelTime().getDoubleValue(), sent);
 	}
-
+	
 	/**
-	 * processNewPackets() checks all incoming ports and adds new messages
-	 * to the pList, while maintaining its priority-sorting order.
-	 * It also updates respective interference sets by checking if the new message
-	 * route overlaps with any of the existing routes.
+	 * update() updates the engine to the current time, sends the delivered
+	 * packets out and schedules next firing.
 	 * @throws IllegalActionException
 	 */
-	protected void processNewPackets() throws IllegalActionException {
-		RecordToken inputPacket, additional_fields;
-		PListElement newElement, currentElement;
-		String[] labels;
-		Token[] values;
+	protected void update() throws IllegalActionException {
+		double time = getDirector().getModelTime().getDoubleValue();
+		engine.update(time);
+		for (PListElement plistElement : engine.delivered())
+			output[plistElement.destPort].send(0, outputPacket(plistElement));
+		sent += engine.delivered().size();
+		if (fastForward) {
+			replayNextFiring(time);
+			requestFiring(firings.peekKey());
+		}
+		else
+			requestNextFiring();
+	}
+	
+	/**
+	 * hasNewPackets() checks whether any of the input ports has a packet.
+	 * @return boolean showing whether a packet has arrived
+	 * @throws IllegalActionException
+	 */
+	protected boolean hasNewPackets() throws IllegalActionException {
+		for (int i = 0; i < input.length; i++)
+			if (input[i].hasToken(0))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * replayNextFiring() records the firing which would be requested from the director
+	 * after an update at the given time without fastForward, as requestNextFiring() does.
+	 * @param time time of the update
+	 */
+	protected void replayNextFiring(double time) {
+		double next = engine.nextWakeup();
 		
-		// Check all input ports
-		for (int i=0; i < 16; i++) {
-			if (input[i].hasToken(0)) {
-				inputPacket = (RecordToken)input[i].get(0);
-			    
-				// Add new fields into the packet representing the time the packed arrived 
-				// (the communication has started) and where it arrived from in XY coordinates.
-				labels = new String[] {"commstarttime", "src_x", "src_y"};
-				values = new Token[] {new DoubleToken(this.getDirector().getModelTime().getDoubleValue()),
-									  new IntToken(xyCoors[i][0]),
-						   	    	  new IntToken(xyCoors[i][1])};
-				additional_fields = new RecordToken(labels, values);
-				inputPacket = RecordToken.merge(additional_fields, inputPacket);
-				
-				// Create a new pList element
-				newElement = new PListElement();
-				// A packet to transfer
-				newElement.packet = inputPacket;
-				// Number of hops (routers) between source and destination
-				newElement.numberOfHops = manhattanDistance(newElement);
-				// Initially remaining payload is the full payload, i.e. size
-				newElement.remainingPayload = ((IntToken)newElement.packet.get("size")).intValue();
-				
-				// For all elements in pList, check if they will interfere with
-				// the new element, or if the element will interfere with them
-				for (int l=0; l < plist.size(); l++) {
-					
-					currentElement = (PListElement)plist.elementAt(l);
-					
-					// If part of their routes overlap
-					if (overlap(newElement, currentElement)) {
-						
-						if (((IntToken)newElement.packet.get("priority")).intValue() >
-							((IntToken)currentElement.packet.get("priority")).intValue())
-							// Priority of the new element is lower, so element L will
-							// interfere with the new element
-							newElement.interference.add(currentElement);
-						else
-							// Priority of the new element is bigger, so it will interfere
-							// with element L
-							currentElement.interference.add(newElement);
-					}
-				}
-				// Add new element to plist while maintaining the priority sort order
-				plist.insertElementAt(newElement, sortedIndex(newElement));
-			}
+		if (next != Double.POSITIVE_INFINITY &&
+			(replayedFiring <= time || next < replayedFiring)) {
+			replayedFiring = next;
+			firings.push(next, null);
 		}
 	}
 	
 	/**
-	 * updatePList() maintains packet status during the communication time.
-     * It controls which messages should be active or inactive and it records
-     * how much time it would take for a message to get to destination based on
-     * the route and interference.
+	 * replayFiring() updates the engine at the earliest recorded firing, as the director
+	 * would fire the actor without fastForward. Firings recorded at the same time are
+	 * taken together.
+	 * @return time of the firing
+	 */
+	protected double replayFiring() {
+		double time = firings.peekKey();
+		
+		while (firings.peekKey() <= time)
+			firings.pop();
+		engine.update(time);
+		replayNextFiring(time);
+		return time;
+	}
+	
+	/**
+	 * speculate() keeps the state of the engine and fast-forwards it through the recorded
+	 * firings, as if no packet arrived in the meantime, up to the first one which delivers
+	 * packets. The actor is then fired at the time of that delivery.
 	 * @throws IllegalActionException
 	 */
-	protected void updatePList() throws IllegalActionException {
-		PListElement currentElement, interferingElement;
-		int destination;
-		int hopsVisited;
-		boolean noneActive;
-		Time ctime_raw = this.getDirector().getModelTime();
-		Double ctime = ctime_raw.getDoubleValue();
+	protected void speculate() throws IllegalActionException {
+		// Firings after the stop time are never made
+		Time stopTime = getDirector().getModelStopTime();
+		double horizon = stopTime.getDoubleValue() == Double.POSITIVE_INFINITY ? Double.POSITIVE_INFINITY :
+						 stopTime.getDoubleValue() + getDirector().getTimeResolution();
 		
-		// Iterate through all elements of the pList
-		for (int i = 0; i < plist.size(); i++) {
-			currentElement = (PListElement)plist.elementAt(i);
-			if (currentElement.active) {
-				// The element is currently active
-				
-				// Update how many packets have been fully transmitted during
-				// the active time
-				currentElement.remainingPayload = currentElement.remainingPayload -
-													sentFlits(currentElement);
-				// The number of hops that could be visited by the leading packet 
-				// during the active time
-				hopsVisited = (int)Math.ceil((ctime - currentElement.ta) / routerLatency);
-				// The hop at which the leading packet currently is buffered
-				currentElement.lastHop = Math.min(
-												currentElement.numberOfHops,
-												currentElement.lastHop + hopsVisited);
-				currentElement.ta = ctime;
-				
-				if (currentElement.remainingPayload == 0) {
-					// All packets delivered - remove the element from pList
-					// and mark that it is delivered so that those elements, which contain
-					// it in their interference sets can get rid of it 
-					currentElement.delivered = true;
-					plist.remove(i);					
-					
-					destination = ((IntToken)currentElement.packet.get("x")).intValue() * 4 +
-								  ((IntToken)currentElement.packet.get("y")).intValue();					
-					output[destination].send(0, currentElement.packet);		
-				}
-				else {
-					// Message is still not fully delivered
-					// Check if any of the higher-priority interfering messages have changed 
-					// their status and whether it affect the current element
-					for (int l = 0; l < currentElement.interference.size(); l++) {
-						interferingElement = (PListElement)currentElement.interference.elementAt(l);
-						
-						if (interferingElement.delivered) {
-							// The message is already delivered, so remove it from the interference set
-							currentElement.interference.remove(l);
-							l--;
-						}
-						else
-							if (interferingElement.active) {
-								// The higher-priority message is active, so it preempts the current message
-								currentElement.active = false;
-								// Update the current progress in terms of hops
-								hopsVisited = (int)Math.ceil((ctime - currentElement.ta) / routerLatency);
-								currentElement.lastHop = Math.min(
-																currentElement.numberOfHops,
-																currentElement.lastHop + hopsVisited);
-								// The message was preempted, so we don't care if any other higher-priority
-								// messages became active
-								break;
-							}
-					}
-				}
-			}
-			else {
-				// The element is not active - check if it should be
-				noneActive = true;
-				for (int l = 0; l < currentElement.interference.size(); l++) {
-					interferingElement = (PListElement)currentElement.interference.elementAt(l);
-					if (interferingElement.delivered) {
-						// The message is already delivered, so remove it from the interference set
-						currentElement.interference.remove(l);
-						l--;
-					}
-					else
-						if (interferingElement.active) {
-							// At least one of the higher-priority messages became active
-							noneActive = false;
-							break;
-						}
-				}
-				if (noneActive) {
-					// None of the higher-priority messages are active, so get to work
-					currentElement.active = true;
-					currentElement.ta = ctime;
-
-					// Schedule update to the time when we expect the message to be fully delivered 
-					getDirector().fireAt(this, ctime_raw.add(noLoadLatency(currentElement)));
-				}
+		speculatedTime = Double.POSITIVE_INFINITY;
+		if (!(firings.peekKey() < horizon))
+			return;
+		
+		engine.mark();
+		speculation = new EventHeap<Object>(firings);
+		speculationReplayedFiring = replayedFiring;
+		
+		while (firings.peekKey() < horizon) {
+			double time = replayFiring();
+			if (!engine.delivered().isEmpty()) {
+				speculatedTime = time;
+				speculated.addAll(engine.delivered());
+				break;
 			}
 		}
+		requestFiring(speculatedTime);
 	}
 	
 	/**
-	 * Overlap() checks if the routes of two elements overlap at least partly and hence
-     * can interfere with each other.
-	 * @param firstElement
-	 * @param secondElement
-	 * @return boolean representing overlapping status
+	 * fireForward() handles a firing without new packets. If the engine has been
+	 * fast-forwarded, the packets it has delivered are sent out once the actor is fired
+	 * at the time of their delivery; otherwise the engine is updated at the recorded
+	 * firing the actor has been fired for. The engine is then fast-forwarded further.
+	 * A firing before that time, which has been requested before a packet arrived,
+	 * only requests the firing at that time.
+	 * @throws IllegalActionException
 	 */
-	protected boolean overlap(PListElement firstElement, PListElement secondElement) {
-		int src1x = ((IntToken)firstElement.packet.get("src_x")).intValue();
-		int src1y = ((IntToken)firstElement.packet.get("src_y")).intValue();
-		int src2x = ((IntToken)secondElement.packet.get("src_x")).intValue();
-		int src2y = ((IntToken)secondElement.packet.get("src_y")).intValue();
-		int dst1x = ((IntToken)firstElement.packet.get("x")).intValue();
-		int dst1y = ((IntToken)firstElement.packet.get("y")).intValue();
-		int dst2x = ((IntToken)secondElement.packet.get("x")).intValue();
-		int dst2y = ((IntToken)secondElement.packet.get("y")).intValue();
-			
-		// Route overlap occurs when two routes have same direction horizontally or
-		// vertically and share a part of the path, i.e. share same links between routers
-		if (((src1y == src2y) &&						// Routes start from the same horizontal line
-			 ((src1x > dst1x) && (src2x > dst2x) ||		// Routed in the same direction horizontally
-		      (src1x < dst1x) && (src2x < dst2x)) &&	// Routed in the same direction horizontally
-		     ((src1x > dst2x) && (src2x > dst1x) ||		// Overlapping restriction in the positive horizontal direction
- 		      (src1x < dst2x) && (src2x < dst1x))) ||	// Overlapping restriction in the negative horizontal direction
-			((dst1x == dst2x) &&						// Routes start from the same vertical line
-		     ((src1y > dst1y) && (src2y > dst2y) ||		// Routed in the same direction vertically
-		      (src1y < dst1y) && (src2y < dst2y)) &&	// Routed in the same direction vertically
-		     ((src1y > dst2y) && (src2y > dst1y) ||		// Overlapping restriction in the positive vertical direction
-		      (src1y < dst2y) && (src2y < dst1y))))		// Overlapping restriction in the negative vertical direction
-		    return true;
-		return false;
+	protected void fireForward() throws IllegalActionException {
+		double next = speculation != null ? speculatedTime : firings.peekKey();
+		if (next == Double.POSITIVE_INFINITY ||
+			new Time(getDirector(), next).compareTo(getDirector().getModelTime()) > 0) {
+			requestFiring(next);
+			return;
+		}
+		
+		if (speculation != null) {
+			engine.commit();
+			speculation = null;
+			for (PListElement plistElement : speculated)
+				output[plistElement.destPort].send(0, outputPacket(plistElement));
+			sent += speculated.size();
+			speculated.clear();
+		}
+		else {
+			replayFiring();
+			for (PListElement plistElement : engine.delivered())
+				output[plistElement.destPort].send(0, outputPacket(plistElement));
+			sent += engine.delivered().size();
+		}
+		speculate();
 	}
 	
 	/**
-	 * sortedIndex() finds a position for the new element
-	 * in the pList so that a priority-sorted order is maintained.
-	 * @param newElement
-	 * @return index of the correct position
+	 * endSpeculation() brings the engine to the current time before the packets
+	 * arrived at it are admitted. If the engine has been fast-forwarded, its state
+	 * before the fast-forward is restored, and it is updated at the recorded firings
+	 * before the current time, none of which delivers anything. The firings at the
+	 * current time are taken together with the arrival.
+	 * @throws IllegalActionException
 	 */
-	protected int sortedIndex(PListElement newElement) {
-		PListElement currentElement;
+	protected void endSpeculation() throws IllegalActionException {
+		double time = getDirector().getModelTime().getDoubleValue();
 		
-		for (int i = 0; i < plist.size(); i++) {
-			currentElement = (PListElement)plist.elementAt(i);
-			
-			if (((IntToken)newElement.packet.get("priority")).intValue() <
-				((IntToken)currentElement.packet.get("priority")).intValue()) {
-				// The priority of newElement is higher than that of the currentElement
-				// so return the index of the currentElement
-				return i;
-			}			
+		if (speculation != null) {
+			engine.rollback();
+			firings = speculation;
+			replayedFiring = speculationReplayedFiring;
+			speculation = null;
+			speculated.clear();
+			speculatedTime = Double.POSITIVE_INFINITY;
 		}
-		// The new element has the least priority, so its correct
-		// position in pList is the end
-		return plist.size();
+		
+		while (firings.peekKey() < time)
+			replayFiring();
+		while (firings.peekKey() <= time)
+			firings.pop();
 	}
 	
 	/**
-	 * sentFlits() calculates how many packets have reached the destination
-	 * during the active time.
-	 * @param plistElement
-	 * @return integer number of packets
+	 * requestNextFiring() asks the director to fire the actor at the earliest time
+	 * the engine has to be updated at, unless such firing has already been requested.
+	 * Later wakeups are requested after that firing, so the actor is fired at the
+	 * same times as if each of them was requested from the director right away.
+	 * @throws IllegalActionException
 	 */
-	protected int sentFlits(PListElement plistElement) {
-		// A period of activity
-		double timeElapsed = this.getDirector().getModelTime().getDoubleValue() - plistElement.ta;
+	protected void requestNextFiring() throws IllegalActionException {
+		requestFiring(engine.nextWakeup());
+	}
+	
+	/**
+	 * requestFiring() asks the director to fire the actor at the given time, unless
+	 * an earlier firing has already been requested.
+	 * @param next time of the firing, none if positive infinity
+	 * @throws IllegalActionException
+	 */
+	protected void requestFiring(double next) throws IllegalActionException {
+		double ctime = getDirector().getModelTime().getDoubleValue();
 		
-		// The number of flits that have reached the destination
-		return Math.min(plistElement.remainingPayload, (int)((Math.floor(timeElapsed / routerLatency)) - 
-							   Math.floor((plistElement.numberOfHops - plistElement.lastHop) * routerLatency) + 1));		
+		if (next != Double.POSITIVE_INFINITY &&
+			(requestedFiring <= ctime || next < requestedFiring)) {
+			requestedFiring = next;
+			firingRequests++;
+			getDirector().fireAt(this, new Time(getDirector(), requestedFiring));
+		}
 	}
 	
 	/**
-	 * noLoadLatency() returns the time required for all remaining packages 
-	 * of the message to reach the destination.
-	 * @param plistElement
-	 * @return double value representing time
+	 * wrapup() closes the trace, saves the link counters and, if the simulator
+	 * is measured, prints the metrics and how many firings the calendar has saved.
+	 * @throws IllegalActionException
+	 */
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+		
+		if (trace != null) {
+			try {
+				trace.close();
+			}
+			catch (IOException e) {
+				throw new IllegalActionException(this, e, "Cannot write trace");
+			}
+			finally {
+				trace = null;
+			}
+		}
+		
+		if (engine.counters() != null) {
+			String path = countersFileParameter.stringValue();
+			try {
+				engine.counters().save(path, getDirector().getModelTime().getDoubleValue());
+			}
+			catch (IOException e) {
+				throw new IllegalActionException(this, e, "Cannot write counters " + path);
+			}
+		}
+		
+		if (metrics != null) {
+			if (engine.isCoalescing())
+				System.out.println(getFullName() + ": " + engine.updates() + " fires, " +
+								   engine.projections() + " projected completions, " +
+								   firingRequests + " firings requested, " +
+								   (engine.projections() - firingRequests) + " saved");
+			System.out.println(getFullName() + ": " + metrics);
+			unregisterMetrics();
+		}
+	}
+	
+	/**
+	 * unregisterMetrics() removes the metrics of the previous run from JMX
+	 * and the Flight Recorder.
+	 * @throws IllegalActionException
 	 */
-	protected double noLoadLatency(PListElement plistElement) {
-		return (plistElement.numberOfHops - plistElement.lastHop + plistElement.remainingPayload - 1) * routerLatency;	
+	protected void unregisterMetrics() throws IllegalActionException {
+		if (metrics == null)
+			return;
+		try {
+			metrics.unregister();
+		}
+		catch (JMException e) {
+			throw new IllegalActionException(this, e, "Cannot unregister metrics");
+		}
+		finally {
+			metrics = null;
+		}
+	}
+
+	/**
+	 * processNewPackets() checks all incoming ports and admits new messages
+	 * to the engine.
+	 * @throws IllegalActionException
+	 */
+	protected void processNewPackets() throws IllegalActionException {
+		// Check all input ports
+		for (int i=0; i < input.length; i++) {
+			if (input[i].hasToken(0))
+				admit(input[i].get(0), i);
+		}
+	}
+	
+	/**
+	 * admit() admits a new message, which has arrived from the given PE,
+	 * to the engine. Packet records are decoded into PacketTokens.
+	 * @param token
+	 * @param source index of the PE
+	 * @return the new plist element
+	 * @throws IllegalActionException
+	 */
+	protected PListElement admit(Token token, int source) throws IllegalActionException {
+		PacketToken inputPacket = PacketToken.valueOf(token);
+		int dstX = inputPacket.x;
+		int dstY = inputPacket.y;
+		int priority = inputPacket.priority;
+		int size = inputPacket.size;
+		if (dstX < 0 || dstX >= meshWidth || dstY < 0 || dstY >= meshHeight)
+			throw new IllegalActionException(this, "Destination (" + dstX + ", " +
+											 dstY + ") is outside of the mesh");
+		
+		// Record the time the packet arrived (the communication has started)
+		// and where it arrived from in XY coordinates. These are set in
+		// the packet only when it is sent out.
+		PListElement plistElement = engine.admit(xyCoors[source][0], xyCoors[source][1], dstX, dstY,
+												 priority, size, getDirector().getModelTime().getDoubleValue(),
+												 inputPacket);
+		if (metrics != null)
+			metrics.admitted(plistElement);
+		return plistElement;
 	}
 	
 	/**
-	 * manhattanDistance() returns the number of hops between
-	 * message source and destination.
+	 * outputPacket() sets the communication start time and the source
+	 * coordinates in the packet of a delivered element. This is the only
+	 * place where the packet is touched after the admission.
 	 * @param plistElement
-	 * @return integer number of hops
+	 * @return packet to be sent to the destination
 	 */
-	protected int manhattanDistance(PListElement plistElement) {
-		return Math.abs(((IntToken)plistElement.packet.get("src_x")).intValue() - 
-					    ((IntToken)plistElement.packet.get("x")).intValue()) +
-			   Math.abs(((IntToken)plistElement.packet.get("src_y")).intValue() - 
-					    ((IntToken)plistElement.packet.get("y")).intValue());
+	protected PacketToken outputPacket(PListElement plistElement) {
+		PacketToken packet = (PacketToken)plistElement.packet;
+		packet.commStartTime = plistElement.commStartTime;
+		packet.srcX = plistElement.srcX;
+		packet.srcY = plistElement.srcY;
+		return packet;
 	}
 }
@@ -39,7 +39,7 @@ public class reporter extends TypedCompositeActor {
 		disp = new Display(this, "myDisplay");
 		
 		dispRelation = new TypedIORelation(this, "dispRelation");
-		for (int i = 0; i < 7; i++)
+		for (int i = 0; i < myStatistician.output.length; i++)
 			myStatistician.output[i].link(dispRelation);
 		disp.input.link(dispRelation);
 	}
@@ -1,24 +1,43 @@
 package lsi.noc.assessment22;
 
+import java.io.IOException;
+
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.Token;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.data.type.RecordType;
 import ptolemy.data.type.Type;
+import lsi.noc.application.PacketToken;
 
 /**
- * Statistician actor processes the output data from producers
+ * Statistician actor processes the packets received by consumers
  * and outputs minimum, average and maximum durations of communication and 
  * end-to-end latency for each task. For each parameter it outputs a single record, whose
  * fields correspond to tasks and values correspond to relation between calculated data 
- * and the reference data. Updated parameter records are sent on each input record.
+ * and the reference data. Tasks, for which there is no reference data, get the calculated
+ * data itself.
+ * 
+ * Updated parameter records are sent every emissionInterval input records (1 by default)
+ * and every emissionPeriod of model time (0, never, by default). Unless they are sent on
+ * each input record, they are also sent at the stop time of the model, so that setting
+ * both to 0 sends them only once, at the end of the run. Between emissions, only the
+ * primitive arrays of the parameters are updated.
+ * 
+ * Latencies are also counted in a LatencyHistogram per task, from which the 50th, 99th
+ * and 99.9th percentiles are sent in seconds on the last six ports. If histogramFile
+ * is set, the histograms are saved to it at wrapup, so that the percentiles of several
+ * runs can be merged with LatencyHistogram.
 */
 
 @SuppressWarnings("serial")
@@ -26,14 +45,30 @@ public class statistician extends TypedAtomicActor {
 
 	protected double[][] accumulator, minimum, maximum;
 	protected int[] counter;
+	// Histograms and their latest percentiles, indexed by task and latency
+	protected LatencyHistogram[][] histograms;
+	protected double[][][] percentiles;
+	// Boolean showing whether the percentiles of a task are out of date
+	protected boolean[] stale;
+	protected static final double[] PERCENTAGES = new double[] {50, 99, 99.9};
+	protected StringParameter histogramFileParameter;
+	
+	// Emission policy: number of input records and model time between emissions, 0 if unused
+	protected Parameter emissionIntervalParameter, emissionPeriodParameter;
+	protected int emissionInterval = 1;
+	protected double emissionPeriod = 0;
+	// Input records accounted since the latest emission and time of the next periodic emission
+	protected int pendingRecords;
+	protected double nextEmission;
 	
-	protected RecordToken inputRecord, outputRecord;
+	protected RecordToken outputRecord;
 	protected TypedIOPort input;
 	protected TypedIOPort[] output;
 	
 	// Port count = number of parameters to output
-	protected int portCount = 7;
+	protected int portCount = 13;
 	// Label count = number of tasks to track = number of fields in the output records
+	protected Parameter taskCountParameter;
 	protected int labelCount = 20;
 
 	protected RecordType outputRecordType;
@@ -56,9 +91,72 @@ public class statistician extends TypedAtomicActor {
 		
 		input = new TypedIOPort(this, "input", true, false);
 		output = new TypedIOPort[portCount];
+		for (int i=0; i<portCount; i++)
+			output[i] = new TypedIOPort(this, "output" + Integer.toString(i), false, true);
 
 		parameterLabels = new String[] {"id", "min_commtime", "avg_commtime", "max_commtime",
-											 "min_totaltime", "avg_totaltime", "max_totaltime"};
+											 "min_totaltime", "avg_totaltime", "max_totaltime",
+											 "p50_commtime", "p99_commtime", "p999_commtime",
+											 "p50_totaltime", "p99_totaltime", "p999_totaltime"};
+		
+		taskCountParameter = new Parameter(this, "taskCount");
+		taskCountParameter.setTypeEquals(BaseType.INT);
+		taskCountParameter.setExpression("20");
+		
+		histogramFileParameter = new StringParameter(this, "histogramFile");
+		histogramFileParameter.setExpression("");
+		
+		emissionIntervalParameter = new Parameter(this, "emissionInterval");
+		emissionIntervalParameter.setTypeEquals(BaseType.INT);
+		emissionIntervalParameter.setExpression("1");
+		
+		emissionPeriodParameter = new Parameter(this, "emissionPeriod");
+		emissionPeriodParameter.setTypeEquals(BaseType.DOUBLE);
+		emissionPeriodParameter.setExpression("0.0");
+		
+		createRecords();
+	}
+	
+	/**
+	 * attributeChanged() recreates output record types when the number of tasks changes
+	 * and checks the emission policy.
+	 * @param attribute
+	 * @throws IllegalActionException
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if (attribute == taskCountParameter) {
+			int value = ((IntToken)taskCountParameter.getToken()).intValue();
+			if (value < 1)
+				throw new IllegalActionException(this, "Task count must be positive");
+			if (value != labelCount) {
+				labelCount = value;
+				createRecords();
+			}
+		}
+		else if (attribute == emissionIntervalParameter) {
+			int value = ((IntToken)emissionIntervalParameter.getToken()).intValue();
+			if (value < 0)
+				throw new IllegalActionException(this, "Emission interval must not be negative");
+			emissionInterval = value;
+		}
+		else if (attribute == emissionPeriodParameter) {
+			double value = ((DoubleToken)emissionPeriodParameter.getToken()).doubleValue();
+			if (value < 0)
+				throw new IllegalActionException(this, "Emission period must not be negative");
+			emissionPeriod = value;
+		}
+		else
+			super.attributeChanged(attribute);
+	}
+	
+	/**
+	 * createRecords() sets up output record types and parameter arrays
+	 * for the current number of tasks.
+	 */
+	protected void createRecords() {
+		Type[] intTypes = new Type[labelCount];
+		Type[] doubleTypes = new Type[labelCount];
+		
 		labels = new String[portCount][labelCount];
 		
 		// Labels for "id" record
@@ -66,26 +164,18 @@ public class statistician extends TypedAtomicActor {
 			for (int i=0; i<labelCount; i++) {
 				labels[l][i] = parameterLabels[l] + (i < 10 ? "0" : "") + Integer.toString(i);
 			}		
+		for (int i=0; i<labelCount; i++) {
+			intTypes[i] = BaseType.INT;
+			doubleTypes[i] = BaseType.DOUBLE;
+		}
 		
 		// Types for "id" record
-		outputRecordType = new RecordType(labels[0], 
-							new Type[] {BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT,
-						   				BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT,
-						   				BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT,
-				   						BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT});		
-		output[0] = new TypedIOPort(this, "output0", false, true);
+		outputRecordType = new RecordType(labels[0], intTypes);		
 		output[0].setTypeEquals(outputRecordType);
 
 		// Labels & types of the other parameter records
 		for (int i=1; i<portCount; i++) {
-			output[i] = new TypedIOPort(this, "output" + Integer.toString(i), false, true);
-			
-			outputRecordType = new RecordType(labels[i], 
-					new Type[] {BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE,
-				   				BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE,
-				   				BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE,
-				   				BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE, BaseType.DOUBLE});
-			
+			outputRecordType = new RecordType(labels[i], doubleTypes);
 			output[i].setTypeEquals(outputRecordType);
 		}
 
@@ -94,6 +184,13 @@ public class statistician extends TypedAtomicActor {
 		minimum = new double[labelCount][2];
 		maximum = new double[labelCount][2];
 		counter = new int[labelCount];
+		histograms = new LatencyHistogram[labelCount][2];
+		for (int i=0; i<labelCount; i++) {
+			histograms[i][0] = new LatencyHistogram();
+			histograms[i][1] = new LatencyHistogram();
+		}
+		percentiles = new double[labelCount][2][PERCENTAGES.length];
+		stale = new boolean[labelCount];
 	}
 	
 	/**
@@ -111,7 +208,14 @@ public class statistician extends TypedAtomicActor {
 			maximum[i][0] = 0;
 			maximum[i][1] = 0;
 			counter[i] = 0;
+			for (int j=0; j<2; j++) {
+				histograms[i][j].clear();
+				for (int p=0; p<PERCENTAGES.length; p++)
+					percentiles[i][j][p] = 0;
+			}
+			stale[i] = false;
 		}
+		pendingRecords = 0;
 		reference = new Double[20][];
 		reference[0] = new Double[] {0.00000161, 0.00000171, 0.00000214, 0.00080161, 0.00218632, 0.00590161};
 		reference[1] = new Double[] {0.00000158, 0.00000253, 0.00000363, 0.00080158, 0.00080253, 0.00080363};
@@ -134,73 +238,162 @@ public class statistician extends TypedAtomicActor {
 		reference[18] = new Double[] {0.00000520, 0.00000520, 0.00000520, 0.00550520, 0.00550520, 0.00550520};
 		reference[19] = new Double[] {0.00000523, 0.00000523, 0.00000523, 0.00550523, 0.00550523, 0.00550523};
 
+		double now = getDirector().getModelTime().getDoubleValue();
+		if (emissionPeriod > 0) {
+			nextEmission = now + emissionPeriod;
+			getDirector().fireAt(this, new Time(getDirector(), nextEmission));
+		}
+		Time stopTime = getDirector().getModelStopTime();
+		if (emissionInterval != 1 && stopTime.getDoubleValue() != Double.POSITIVE_INFINITY)
+			getDirector().fireAt(this, stopTime);
 	}
 
 	/**
-	 * fire() processes the input data and send the resulting parameter 
-	 * records to the output ports. 
+	 * fire() processes the input data and sends the resulting parameter 
+	 * records to the output ports when the emission policy says so. 
 	 * @throws IllegalActionException
 	 */
 	public void fire() throws IllegalActionException {
 		super.fire();
 		
-		if (input.hasToken(0)) {
-			inputRecord = (RecordToken)input.get(0);
-			int id = ((IntToken)inputRecord.get("id")).intValue();
-			
-			// Communication latency
-			double latency = ((DoubleToken)inputRecord.get("commfinishtime")).doubleValue() - 
-							 ((DoubleToken)inputRecord.get("commstarttime")).doubleValue();
-			if (latency < minimum[id][0])
-				minimum[id][0] = latency;
-			if (latency > maximum[id][0])
-				maximum[id][0] = latency;
-			accumulator[id][0] = accumulator[id][0] + latency;
-			
-			// End-to-end latency
-			latency = ((DoubleToken)inputRecord.get("commfinishtime")).doubleValue() - 
-					 ((DoubleToken)inputRecord.get("releasetime")).doubleValue() - 
-					(((DoubleToken)inputRecord.get("commstarttime")).doubleValue() - // Delay between end of computation and start of communication
-					 ((DoubleToken)inputRecord.get("compfinishtime")).doubleValue());
-			if (latency < minimum[id][1])
-				minimum[id][1] = latency;
-			if (latency > maximum[id][1])
-				maximum[id][1] = latency;
-			accumulator[id][1] = accumulator[id][1] + latency;
-			
-			// Input record counter
-			counter[id]++;
-			
-			// Send records for all parameters
-			values = new Token[labelCount];
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new IntToken(i);
-			output[0].send(0, new RecordToken(labels[0], values));
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(minimum[i][0] - reference[i][0]) * 100 / reference[i][0]);
-			output[1].send(0, new RecordToken(labels[1], values));
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(accumulator[i][0] / counter[i] - reference[i][1]) * 100 / reference[i][1]);
-			output[2].send(0, new RecordToken(labels[2], values));
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(maximum[i][0] - reference[i][2]) * 100 / reference[i][2]);
-			output[3].send(0, new RecordToken(labels[3], values));
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(minimum[i][1] - reference[i][3]) * 100 / reference[i][3]);
-			output[4].send(0, new RecordToken(labels[4], values));
-			
-			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(accumulator[i][1] / counter[i] - reference[i][4]) * 100 / reference[i][4]);
-			output[5].send(0, new RecordToken(labels[5], values));
-			
+		if (input.hasToken(0))
+			process(PacketToken.valueOf(input.get(0)));
+		
+		double now = getDirector().getModelTime().getDoubleValue();
+		if (emissionPeriod > 0 && now >= nextEmission) {
+			if (pendingRecords > 0)
+				emit();
+			while (nextEmission <= now)
+				nextEmission += emissionPeriod;
+			getDirector().fireAt(this, new Time(getDirector(), nextEmission));
+		}
+		if (pendingRecords > 0 && now >= getDirector().getModelStopTime().getDoubleValue())
+			emit();
+	}
+	
+	/**
+	 * process() accounts a received packet and sends the updated parameter records
+	 * if emissionInterval packets have been accounted since the latest emission.
+	 * @param packet
+	 * @throws IllegalActionException
+	 */
+	protected void process(PacketToken packet) throws IllegalActionException {
+		int id = packet.id;
+		if (id < 0 || id >= labelCount)
+			throw new IllegalActionException(this, "Task id " + id + " is out of range");
+		
+		// Communication latency
+		double latency = packet.commFinishTime - packet.commStartTime;
+		if (latency < minimum[id][0])
+			minimum[id][0] = latency;
+		if (latency > maximum[id][0])
+			maximum[id][0] = latency;
+		accumulator[id][0] = accumulator[id][0] + latency;
+		histograms[id][0].record(latency);
+		
+		// End-to-end latency
+		latency = packet.commFinishTime - packet.releaseTime - 
+				 (packet.commStartTime - packet.compFinishTime); // Delay between end of computation and start of communication
+		if (latency < minimum[id][1])
+			minimum[id][1] = latency;
+		if (latency > maximum[id][1])
+			maximum[id][1] = latency;
+		accumulator[id][1] = accumulator[id][1] + latency;
+		histograms[id][1].record(latency);
+		
+		// Input record counter
+		counter[id]++;
+		
+		// Only the percentiles of this task have changed
+		stale[id] = true;
+		
+		pendingRecords++;
+		if (emissionInterval > 0 && pendingRecords >= emissionInterval)
+			emit();
+	}
+	
+	/**
+	 * emit() sends the records of all parameters.
+	 * @throws IllegalActionException
+	 */
+	protected void emit() throws IllegalActionException {
+		pendingRecords = 0;
+		for (int i=0; i<labelCount; i++)
+			if (stale[i]) {
+				for (int j=0; j<2; j++)
+					for (int p=0; p<PERCENTAGES.length; p++)
+						percentiles[i][j][p] = histograms[i][j].percentile(PERCENTAGES[p]);
+				stale[i] = false;
+			}
+		
+		// Send records for all parameters
+		values = new Token[labelCount];
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new IntToken(i);
+		output[0].send(0, new RecordToken(labels[0], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(minimum[i][0], i, 0));
+		output[1].send(0, new RecordToken(labels[1], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(accumulator[i][0] / counter[i], i, 1));
+		output[2].send(0, new RecordToken(labels[2], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(maximum[i][0], i, 2));
+		output[3].send(0, new RecordToken(labels[3], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(minimum[i][1], i, 3));
+		output[4].send(0, new RecordToken(labels[4], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(accumulator[i][1] / counter[i], i, 4));
+		output[5].send(0, new RecordToken(labels[5], values));
+		
+		for (int i=0; i<labelCount; i++)
+			values[i] = new DoubleToken(relative(maximum[i][1], i, 5));
+		output[6].send(0, new RecordToken(labels[6], values));
+		
+		// Percentile records, 3 per latency
+		for (int l=7; l<portCount; l++) {
 			for (int i=0; i<labelCount; i++)
-				values[i] = new DoubleToken(Math.abs(maximum[i][1] - reference[i][5]) * 100 / reference[i][5]);
-			output[6].send(0, new RecordToken(labels[6], values));
+				values[i] = new DoubleToken(percentiles[i][(l - 7) / 3][(l - 7) % 3]);
+			output[l].send(0, new RecordToken(labels[l], values));
+		}
+	}
+	
+	/**
+	 * relative() returns the relation between calculated and reference data
+	 * in percents, or the calculated data if there is no reference for the task.
+	 * @param value calculated data
+	 * @param task
+	 * @param parameter index of the reference parameter
+	 * @return double value
+	 */
+	protected double relative(double value, int task, int parameter) {
+		if (task >= reference.length)
+			return value;
+		return Math.abs(value - reference[task][parameter]) * 100 / reference[task][parameter];
+	}
+
+	/**
+	 * wrapup() saves the histograms if histogramFile is set.
+	 * @throws IllegalActionException
+	 */
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+		
+		String path = histogramFileParameter.stringValue();
+		if (path.isEmpty())
+			return;
+		try {
+			LatencyHistogram.save(path, histograms);
+		}
+		catch (IOException exception) {
+			throw new IllegalActionException(this, exception, "Cannot save histograms to " + path);
 		}
 	}
 
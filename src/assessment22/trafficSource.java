@@ -0,0 +1,248 @@
+package lsi.noc.assessment22;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import lsi.noc.application.PacketToken;
+
+/**
+ * trafficSource actor feeds interConnect with the synthetic traffic of a
+ * TrafficPattern: uniform, transpose, bitcomplement, hotspot or bursty. Its
+ * output<i> ports, i = x * meshHeight + y, are connected to the input ports of
+ * interConnect. Packets are sent at the start of the clock cycle they are
+ * generated in, as if their computation had just finished, with the packet
+ * number as their id.
+ *
+ * load is the number of flits each PE offers per router latency, which is
+ * three clock periods as in interConnect. Runs with the same seed send the
+ * same packets.
+*/
+
+@SuppressWarnings("serial")
+public class trafficSource extends TypedAtomicActor {
+
+	// An output port for each PE in the mesh
+	protected TypedIOPort[] output;
+
+	protected Parameter meshWidthParameter, meshHeightParameter;
+	protected int meshWidth, meshHeight;
+	protected Parameter periodParameter;
+	protected double period;
+
+	// Pattern and its settings, see TrafficPattern
+	protected StringParameter patternParameter;
+	protected Parameter loadParameter, seedParameter;
+	protected Parameter minSizeParameter, maxSizeParameter;
+	protected Parameter minPriorityParameter, maxPriorityParameter, priorityPerSourceParameter;
+	protected Parameter hotspotXParameter, hotspotYParameter, hotspotFractionParameter;
+	protected Parameter burstLengthParameter, dutyCycleParameter;
+
+	protected TrafficPattern traffic;
+
+	/**
+	 * Constructor sets up parameters and ports.
+	 * @param container
+	 * @param name
+	 * @throws NameDuplicationException
+	 * @throws IllegalActionException
+	 */
+	public trafficSource(CompositeEntity container, String name)
+	throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+
+		periodParameter = new Parameter(this, "Period");
+		periodParameter.setTypeEquals(BaseType.DOUBLE);
+		periodParameter.setExpression("period");
+
+		patternParameter = new StringParameter(this, "pattern");
+		patternParameter.setExpression("uniform");
+		for (int i = TrafficPattern.UNIFORM; i <= TrafficPattern.BURSTY; i++)
+			patternParameter.addChoice(TrafficPattern.name(i));
+
+		loadParameter = doubleParameter("load", "0.1");
+		seedParameter = new Parameter(this, "seed");
+		seedParameter.setTypeEquals(BaseType.LONG);
+		seedParameter.setExpression("1L");
+
+		minSizeParameter = intParameter("minSize", "64");
+		maxSizeParameter = intParameter("maxSize", "64");
+		minPriorityParameter = intParameter("minPriority", "1");
+		maxPriorityParameter = intParameter("maxPriority", "32");
+		priorityPerSourceParameter = new Parameter(this, "priorityPerSource");
+		priorityPerSourceParameter.setTypeEquals(BaseType.BOOLEAN);
+		priorityPerSourceParameter.setExpression("false");
+
+		// Centre of the mesh by default
+		hotspotXParameter = intParameter("hotspotX", "-1");
+		hotspotYParameter = intParameter("hotspotY", "-1");
+		hotspotFractionParameter = doubleParameter("hotspotFraction", "0.2");
+		burstLengthParameter = doubleParameter("burstLength", "16.0");
+		dutyCycleParameter = doubleParameter("dutyCycle", "0.25");
+
+		meshWidthParameter = intParameter("meshWidth", "4");
+		meshHeightParameter = intParameter("meshHeight", "4");
+
+		output = new TypedIOPort[0];
+		meshWidth = 4;
+		meshHeight = 4;
+		createPorts();
+	}
+
+	protected Parameter intParameter(String name, String value)
+	throws NameDuplicationException, IllegalActionException {
+		Parameter parameter = new Parameter(this, name);
+		parameter.setTypeEquals(BaseType.INT);
+		parameter.setExpression(value);
+		return parameter;
+	}
+
+	protected Parameter doubleParameter(String name, String value)
+	throws NameDuplicationException, IllegalActionException {
+		Parameter parameter = new Parameter(this, name);
+		parameter.setTypeEquals(BaseType.DOUBLE);
+		parameter.setExpression(value);
+		return parameter;
+	}
+
+	protected int intValue(Parameter parameter) throws IllegalActionException {
+		return ((IntToken)parameter.getToken()).intValue();
+	}
+
+	protected double doubleValue(Parameter parameter) throws IllegalActionException {
+		return ((DoubleToken)parameter.getToken()).doubleValue();
+	}
+
+	/**
+	 * attributeChanged() recreates ports when the mesh dimensions change.
+	 * @param attribute
+	 * @throws IllegalActionException
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if (attribute == meshWidthParameter || attribute == meshHeightParameter) {
+			int value = intValue((Parameter)attribute);
+			if (value < 1)
+				throw new IllegalActionException(this, "Mesh dimensions must be positive");
+
+			if (attribute == meshWidthParameter)
+				meshWidth = value;
+			else
+				meshHeight = value;
+			try {
+				createPorts();
+			}
+			catch (NameDuplicationException e) {
+				throw new IllegalActionException(this, e, "Cannot create ports");
+			}
+		}
+		else
+			super.attributeChanged(attribute);
+	}
+
+	/**
+	 * createPorts() makes sure there is an output port for each PE in the mesh.
+	 * @throws IllegalActionException
+	 * @throws NameDuplicationException
+	 */
+	protected void createPorts() throws IllegalActionException, NameDuplicationException {
+		int count = meshWidth * meshHeight;
+		TypedIOPort[] newOutput = new TypedIOPort[count];
+
+		for (int i = 0; i < Math.max(count, output.length); i++) {
+			if (i < output.length && i < count)
+				newOutput[i] = output[i];
+			else if (i < count) {
+				newOutput[i] = new TypedIOPort(this, "output" + Integer.toString(i), false, true);
+				// Packets are PacketTokens, which are of the general type
+				newOutput[i].setTypeEquals(BaseType.GENERAL);
+			}
+			else
+				output[i].setContainer(null);
+		}
+		output = newOutput;
+	}
+
+	/**
+	 * initialize() sets up the pattern and requests a firing at its first packet.
+	 * @throws IllegalActionException
+	 */
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+
+		period = doubleValue(periodParameter);
+		try {
+			int pattern = TrafficPattern.valueOf(patternParameter.stringValue());
+			// Arbitration takes 3 cycles per router, as in interConnect
+			traffic = new TrafficPattern(pattern, meshWidth, meshHeight, period * 3, doubleValue(loadParameter),
+										 ((LongToken)seedParameter.getToken()).longValue());
+			traffic.setSize(intValue(minSizeParameter), intValue(maxSizeParameter));
+			traffic.setPriorities(intValue(minPriorityParameter), intValue(maxPriorityParameter),
+								  ((BooleanToken)priorityPerSourceParameter.getToken()).booleanValue());
+			if (pattern == TrafficPattern.HOTSPOT) {
+				int x = intValue(hotspotXParameter);
+				int y = intValue(hotspotYParameter);
+				traffic.setHotspot(x < 0 ? meshWidth / 2 : x, y < 0 ? meshHeight / 2 : y,
+								   doubleValue(hotspotFractionParameter));
+			}
+			if (pattern == TrafficPattern.BURSTY)
+				traffic.setBursts(doubleValue(burstLengthParameter), doubleValue(dutyCycleParameter));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalActionException(this, e, e.getMessage());
+		}
+		requestNextFiring();
+	}
+
+	/**
+	 * cycleStart() returns the start of the clock cycle a packet is generated in.
+	 * @param time
+	 * @return time
+	 */
+	protected double cycleStart(double time) {
+		return Math.ceil(time / period) * period;
+	}
+
+	/**
+	 * fire() sends the packets generated up to the current time.
+	 * @throws IllegalActionException
+	 */
+	public void fire() throws IllegalActionException {
+		super.fire();
+
+		Time modelTime = getDirector().getModelTime();
+		double now = modelTime.getDoubleValue();
+		while (traffic.nextTime() != Double.POSITIVE_INFINITY &&
+			   new Time(getDirector(), cycleStart(traffic.nextTime())).compareTo(modelTime) <= 0) {
+			TrafficPattern.Injection injection = traffic.next();
+			PacketToken packet = new PacketToken();
+			packet.id = (int)injection.id;
+			packet.x = injection.dstX;
+			packet.y = injection.dstY;
+			packet.priority = injection.priority;
+			packet.size = injection.size;
+			packet.releaseTime = now;
+			packet.compFinishTime = now;
+			output[injection.srcX * meshHeight + injection.srcY].send(0, packet);
+		}
+		requestNextFiring();
+	}
+
+	/**
+	 * requestNextFiring() asks the director to fire the actor at the next packet.
+	 * @throws IllegalActionException
+	 */
+	protected void requestNextFiring() throws IllegalActionException {
+		if (traffic.nextTime() != Double.POSITIVE_INFINITY)
+			getDirector().fireAt(this, new Time(getDirector(), cycleStart(traffic.nextTime())));
+	}
+}